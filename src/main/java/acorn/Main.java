@@ -1,11 +1,70 @@
 package acorn;
 
 import acorn.ui.CLI;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
 import picocli.CommandLine;
 
 public class Main {
 
+    /// Compiler version, mixed into `FINGERPRINT`.
+    public static final String VERSION = "1.0-SNAPSHOT";
+
+    /// Identifies this exact build of the compiler, part of every build cache
+    /// key. It hashes the compiler's own classes and its runtime, so cached
+    /// headers and IR never outlive the compiler that produced them, whatever
+    /// `VERSION` says.
+    public static final String FINGERPRINT = fingerprint();
+
     public static void main(String[] args) {
-        new CommandLine(new CLI()).execute(args);
+        System.exit(new CommandLine(new CLI()).execute(args));
+    }
+
+    static String fingerprint() {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(VERSION.getBytes());
+            var location = Path.of(
+                Main.class.getProtectionDomain()
+                    .getCodeSource()
+                    .getLocation()
+                    .toURI()
+            );
+            if (Files.isDirectory(location)) {
+                try (var walk = Files.walk(location)) {
+                    var files = walk
+                        .filter(Files::isRegularFile)
+                        .sorted()
+                        .toList();
+                    for (var file : files) {
+                        digest.update(
+                            location.relativize(file).toString().getBytes()
+                        );
+                        digest.update(Files.readAllBytes(file));
+                    }
+                }
+            } else {
+                digest.update(Files.readAllBytes(location));
+            }
+            // resources may live apart from the classes, as under Gradle
+            try (
+                var runtime = Objects.requireNonNull(
+                    Main.class.getResourceAsStream("/runtime/acorn_rt.c")
+                )
+            ) {
+                digest.update(runtime.readAllBytes());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (
+            IOException | URISyntaxException | NoSuchAlgorithmException e
+        ) {
+            throw new RuntimeException(e);
+        }
     }
 }
@@ -0,0 +1,245 @@
+package acorn.cache;
+
+import acorn.Main;
+import acorn.parser.Parser;
+import acorn.parser.ast.AstType;
+import acorn.parser.ast.Header;
+import acorn.parser.ctx.GlobalContext;
+import acorn.reader.MappedSource;
+import acorn.token.Tokenizer;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/// On-disk cache for incremental builds, stored under `./build/cache`.
+///
+/// Parsed headers are cached per source file, keyed by a hash of the
+/// compiler version, the file name and its contents. Emitted IR is cached per
+/// source file as well, keyed by that same hash together with a hash of every
+/// signature in the `GlobalContext`; a file's IR is only re-emitted when the
+/// file itself or some signature it could depend on has changed.
+///
+/// Units are also kept in memory for as long as the cache is open, which lets
+/// a long-lived daemon skip deserialization for files that did not change.
+public class BuildCache {
+
+    /// The parsed headers of a single source file.
+    public record Unit(String fileName, String hash, List<Header> headers) {}
+
+    /// The classes a cached header file may contain: the AST, spans and the
+    /// lists and strings they are built from. An entry naming any other
+    /// class is rejected before it is instantiated and parsed again, so a
+    /// tampered cache cannot make the compiler deserialize arbitrary
+    /// objects.
+    static final ObjectInputFilter HEADER_CLASSES =
+        ObjectInputFilter.Config.createFilter(
+            String.join(
+                ";",
+                "acorn.parser.ast.*",
+                "acorn.token.SpanData",
+                "java.util.ArrayList",
+                "java.util.CollSer",
+                "java.util.ImmutableCollections$*",
+                "java.lang.Object",
+                "java.lang.String",
+                "java.lang.Enum",
+                "java.lang.Number",
+                "java.lang.Integer",
+                "java.lang.Long",
+                "java.lang.Boolean",
+                "!*"
+            )
+        );
+
+    Path root;
+    Map<String, Unit> loaded = new ConcurrentHashMap<>();
+
+    public static BuildCache open(Path root) {
+        var c = new BuildCache();
+        c.root = root;
+        return c;
+    }
+
+    public Unit load(CharSequence source, String fileName) {
+        // spans are byte offsets into mapped sources and char offsets into
+        // strings, so headers parsed in one mode do not fit the other
+        var hash = BuildCache.hash(
+            Main.FINGERPRINT,
+            source instanceof MappedSource ? "bytes" : "chars",
+            fileName,
+            source
+        );
+        var cached = this.loaded.get(fileName);
+        if (cached != null && cached.hash().equals(hash)) {
+            Tokenizer.registerSource(source, fileName);
+            return cached;
+        }
+        var unit = this.loadFromDisk(source, fileName, hash);
+        this.loaded.put(fileName, unit);
+        return unit;
+    }
+
+    Unit loadFromDisk(CharSequence source, String fileName, String hash) {
+        var file = this.root.resolve("headers").resolve(hash + ".bin");
+
+        if (Files.exists(file)) {
+            try (var in = new ObjectInputStream(Files.newInputStream(file))) {
+                in.setObjectInputFilter(HEADER_CLASSES);
+                @SuppressWarnings("unchecked")
+                var headers = (List<Header>) in.readObject();
+                Tokenizer.registerSource(source, fileName);
+                return new Unit(fileName, hash, headers);
+            } catch (IOException | ClassNotFoundException ignored) {
+                // unreadable entries are treated as a cache miss
+            }
+        }
+
+        var headers = Parser.parseSource(source, fileName);
+        this.write(file, out -> out.writeObject(new ArrayList<>(headers)));
+        return new Unit(fileName, hash, headers);
+    }
+
+    /// Returns the cached IR fragment for `unit`, emitting it with `emitter`
+    /// first if the unit or the signatures it is compiled against changed.
+    public Path fragment(Unit unit, String signatureHash, Emitter emitter)
+        throws IOException {
+        var file = this.root
+            .resolve("ir")
+            .resolve(BuildCache.hash(unit.hash(), signatureHash) + ".ll");
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.getParent());
+            var temp = Files.createTempFile(file.getParent(), "fragment", ".ll");
+            try {
+                emitter.emit(temp);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    public interface Emitter {
+        void emit(Path outFile) throws IOException;
+    }
+
+    interface Writer {
+        void write(ObjectOutputStream out) throws IOException;
+    }
+
+    void write(Path file, Writer writer) {
+        try {
+            Files.createDirectories(file.getParent());
+            var temp = Files.createTempFile(file.getParent(), "entry", ".bin");
+            try (var out = new ObjectOutputStream(Files.newOutputStream(temp))) {
+                writer.write(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ignored) {
+            // failing to populate the cache only costs a rebuild next time
+        }
+    }
+
+    /// Hashes every function signature and type alias known to `context`,
+    /// together with the options that change how code is emitted.
+    public static String signatureHash(GlobalContext context) {
+        var functions = context
+            .functions()
+            .entrySet()
+            .stream()
+            .sorted(Map.Entry.comparingByKey())
+            .map(e -> {
+                var function = e.getValue();
+                return (
+                    e.getKey() +
+                    "=" +
+                    function.mangling() +
+                    (function.varargs() ? " varargs " : " ") +
+                    describe(function.ptrType())
+                );
+            })
+            .collect(Collectors.joining("\n"));
+        var aliases = context
+            .typeAliases()
+            .entrySet()
+            .stream()
+            .sorted(Map.Entry.comparingByKey())
+            .map(e -> e.getKey() + "=" + describe(e.getValue()))
+            .collect(Collectors.joining("\n"));
+        return BuildCache.hash(
+            Main.FINGERPRINT,
+            String.valueOf(context.traceComments()),
+            functions,
+            aliases
+        );
+    }
+
+    /// A structural description of a type. Unlike `toString`, this includes
+    /// boxing and the types of struct fields.
+    static String describe(AstType type) {
+        return switch (type) {
+            case AstType.Unresolved unresolved -> unresolved.name();
+            case AstType.Boxed boxed -> "box " + describe(boxed.type());
+            case AstType.Integer integer -> "i" + integer.bits();
+            case AstType.Void _ -> "void";
+            case AstType.LibCPointer _ -> "c_pointer";
+            case AstType.Any _ -> "any";
+            case AstType.Function function -> {
+                var parameters = function
+                    .parameters()
+                    .stream()
+                    .map(BuildCache::describe)
+                    .collect(Collectors.joining(","));
+                yield (
+                    "fn(" +
+                    parameters +
+                    (function.varargs() ? ",..." : "") +
+                    ")->" +
+                    describe(function.returned())
+                );
+            }
+            case AstType.Struct struct -> {
+                var fields = struct
+                    .parameters()
+                    .stream()
+                    .map(x -> x.name() + " " + describe(x.type()))
+                    .collect(Collectors.joining(","));
+                yield "{" + fields + "}";
+            }
+            case AstType.Array array -> "[" + describe(array.param()) + "]";
+        };
+    }
+
+    public static String hash(CharSequence... parts) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            for (var part : parts) {
+                if (part instanceof MappedSource mapped) {
+                    digest.update(mapped.bytes().duplicate());
+                } else {
+                    digest.update(
+                        part.toString().getBytes(StandardCharsets.UTF_8)
+                    );
+                }
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
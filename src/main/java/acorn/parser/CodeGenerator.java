@@ -1,9 +1,12 @@
 package acorn.parser;
 
+import acorn.parser.ast.AstType;
 import acorn.parser.ast.Expression;
 import acorn.parser.ctx.GlobalContext;
 import acorn.parser.ctx.StackMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 import llvm4j.module.Function;
 import llvm4j.module.Module;
 import llvm4j.module.code.BasicBlock;
@@ -18,105 +21,767 @@ public record CodeGenerator(
     Module.Builder module,
     Function.Builder function,
     BasicBlock.Builder codeBuilder,
-    StackMap stackMap
+    StackMap stackMap,
+    Map<Expression, AstType> types,
+    List<CodeGenerator.Temporary> temporaries,
+    EscapeAnalysis escapes,
+    Map<Object, Value> slots
 ) {
+    /// A box, or an unboxed value holding references, created by the
+    /// statement being compiled. The statement owns it until a variable, an
+    /// aggregate or a return claims it.
+    public record Temporary(Value value, AstType type) {}
+
+    /// Header at the start of every box: a strong and a weak reference count,
+    /// padded to 16 bytes. The payload follows the header in the same
+    /// allocation, and since no payload is aligned to more than 16 bytes it
+    /// starts right after the header in heap, stack and global boxes alike.
     public static Type REF_COUNT_WRAPPER = Type.struct(
-        List.of(Type.integer(32), Type.integer(32), Type.ptr())
+        List.of(Type.integer(32), Type.integer(32), Type.integer(64))
     );
+    /// Starting counts of a box that must never be freed.
+    public static long IMMORTAL_COUNT = 1L << 30;
+
+    public Value wrapValueInRefCount(TypeValuePair value, AstType type) {
+        var wrapperPtr = this.allocateBox(type);
+        this.codeBuilder.store(value, this.loadObjPtrFromWrapper(wrapperPtr));
+        return this.own(wrapperPtr, type);
+    }
+
+    /// An empty box for `box` to fill in place. Escape analysis may keep it
+    /// in the frame, where nothing retains or releases it, but its counts are
+    /// set like any other so that write barriers see it as unshared. A heap
+    /// box is owned by the current statement.
+    public Value newBox(Expression.Box box) {
+        var payload = box.value().inferType(this);
+        var array = box.value() instanceof Expression.ArrayLiteral literal
+            ? literal
+            : null;
+        if (!this.escapes.onStack(box)) {
+            return this.own(
+                array != null
+                    ? this.allocateArray(
+                        array.fields().size(),
+                        array.inferElementType(this)
+                    )
+                    : this.allocateBox(payload),
+                payload
+            );
+        }
+        var wrapperPtr = this.slot(box, this.stackBoxType(box));
+        this.initializeCounts(wrapperPtr);
+        if (array != null) {
+            this.codeBuilder.store(
+                Constant.integer(array.fields().size()).typed(Type.integer(64)),
+                this.loadObjPtrFromWrapper(wrapperPtr)
+            );
+        }
+        return wrapperPtr;
+    }
+
+    /// The frame slot for a box kept on the stack. An array box is sized for
+    /// exactly the elements of its literal.
+    public Type stackBoxType(Expression.Box box) {
+        var payload =
+            box.value() instanceof Expression.ArrayLiteral literal
+                ? this.arrayType(
+                    literal.fields().size(),
+                    literal.inferElementType(this)
+                )
+                : box.value().inferType(this).toType(this.context);
+        return Type.struct(List.of(REF_COUNT_WRAPPER, payload));
+    }
 
-    public Value wrapValueInRefCount(TypeValuePair value, int dataSize) {
-        var objPtr = this.codeBuilder().callTyped(
-            Identifier.global("malloc").typed(
+    /// The stack slot made for `node`. Slots are hoisted into the entry block
+    /// ahead of any other code by `StackSlots`, where mem2reg can promote
+    /// them; a node it did not plan for gets an alloca where it stands.
+    public Value slot(Object node, Type type) {
+        var slot = this.slots.get(node);
+        if (slot == null) {
+            return this.codeBuilder.alloca(type);
+        }
+        return slot;
+    }
+
+    /// Allocates a box for a `payload` value and initializes both of its
+    /// reference counts to 1. Small boxes come from the runtime's size-class
+    /// pools rather than straight from malloc.
+    public Value allocateBox(AstType payload) {
+        var wrapperPtr = this.codeBuilder().callTyped(
+            Identifier.global("acorn_alloc").typed(
                 Type.function(Type.ptr(), List.of(Type.integer(64)))
             ),
-            List.of(Constant.integer(dataSize).typed(Type.integer(64)))
+            List.of(this.boxSize(payload).typed(Type.integer(64)))
         );
-        this.codeBuilder.store(value, objPtr);
-        var wrapperPtr = this.codeBuilder().callTyped(
-            Identifier.global("malloc").typed(
-                Type.function(Type.ptr(), List.of(Type.integer(64)))
+        this.initializeCounts(wrapperPtr);
+        return wrapperPtr;
+    }
+
+    /// Allocates an array box: the header, the length and `length` elements
+    /// of `elementType`, all in one allocation. The runtime sets the counts
+    /// and the length.
+    public Value allocateArray(long length, AstType elementType) {
+        return this.codeBuilder.callTyped(
+            Identifier.global("acorn_alloc_array").typed(
+                Type.function(
+                    Type.ptr(),
+                    List.of(
+                        Type.integer(64),
+                        Type.integer(64),
+                        Type.integer(64)
+                    )
+                )
             ),
-            List.of(Constant.integer(128).typed(Type.integer(64)))
+            List.of(
+                Constant.integer(length).typed(Type.integer(64)),
+                this.arrayBase(elementType).typed(Type.integer(64)),
+                this.sizeOf(elementType).typed(Type.integer(64))
+            )
         );
-        this.codeBuilder.store(
-            Constant.undef().typed(REF_COUNT_WRAPPER),
-            wrapperPtr
+    }
+
+    /// The layout of an array payload holding exactly `length` elements.
+    /// `AstType.Array` itself uses a length of zero, which is enough to
+    /// address any element.
+    public Type arrayType(long length, AstType elementType) {
+        return Type.struct(
+            List.of(
+                Type.integer(64),
+                Type.array(length, elementType.toType(this.context))
+            )
         );
-        this.codeBuilder.store(
-            Constant.integer(1).typed(Type.integer(32)),
+    }
+
+    void initializeCounts(Value wrapperPtr) {
+        for (int field = 0; field < 2; field++) {
+            this.codeBuilder.store(
+                Constant.integer(1).typed(Type.integer(32)),
+                this.codeBuilder.getElementPtr(
+                    REF_COUNT_WRAPPER,
+                    wrapperPtr,
+                    Constant.integer(0).typed(Type.integer(32)),
+                    Constant.integer(field).typed(Type.integer(32))
+                )
+            );
+        }
+    }
+
+    /// Whether `value` can be built at compile time: literals, and struct or
+    /// array literals made only of such values.
+    public static boolean isConstant(Expression value) {
+        return switch (value) {
+            case Expression.Integer _, Expression.CStringValue _ -> true;
+            // arrays only exist boxed
+            case Expression.Box(Expression.ArrayLiteral literal) -> {
+                var fields = literal.fields();
+                yield (
+                    !fields.isEmpty() &&
+                    fields.stream().allMatch(CodeGenerator::isConstant)
+                );
+            }
+            case Expression.Box(Expression inner) -> isConstant(inner);
+            case Expression.StructLiteral literal -> literal
+                .fields()
+                .stream()
+                .allMatch(x -> isConstant(x.value()));
+            default -> false;
+        };
+    }
+
+    /// Emits the box of a constant as a global whose counts start out so
+    /// high that balanced retains and releases never bring it to zero. Such
+    /// a box is never freed, so it costs no allocation however often the
+    /// literal runs.
+    public Value immortalBox(Expression.Box box) {
+        var global = this.context.glue(this.module).name("box");
+        this.module.withGlobalVariable(
+            global,
+            Constant.struct(
+                List.of(
+                    Constant.integer(IMMORTAL_COUNT).typed(Type.integer(32)),
+                    Constant.integer(IMMORTAL_COUNT).typed(Type.integer(32)),
+                    Constant.integer(0).typed(Type.integer(64)),
+                    this.constantValue(box.value())
+                )
+            )
+        );
+        return global;
+    }
+
+    TypeValuePair constantValue(Expression value) {
+        var type = value.inferType(this).toType(this.context);
+        return switch (value) {
+            case Expression.Box box -> this.immortalBox(box).typed(type);
+            case Expression.StructLiteral literal -> Constant.struct(
+                literal
+                    .fields()
+                    .stream()
+                    .map(x -> this.constantValue(x.value()))
+                    .toList()
+            ).typed(type);
+            case Expression.ArrayLiteral literal -> {
+                var elements = literal
+                    .fields()
+                    .stream()
+                    .map(this::constantValue)
+                    .toList();
+                yield Constant.struct(
+                    List.of(
+                        Constant.integer(elements.size()).typed(
+                            Type.integer(64)
+                        ),
+                        Constant.array(elements).typed(
+                            Type.array(
+                                elements.size(),
+                                literal
+                                    .inferElementType(this)
+                                    .toType(this.context)
+                            )
+                        )
+                    )
+                ).typed(
+                    this.arrayType(
+                        elements.size(),
+                        literal.inferElementType(this)
+                    )
+                );
+            }
+            default -> value.compileValue(this).typed(type);
+        };
+    }
+
+    /// Hands a freshly created box to the current statement, which releases it
+    /// at its end unless something claims it first.
+    public Value own(Value box, AstType payload) {
+        this.temporaries.add(new Temporary(box, new AstType.Boxed(payload)));
+        return box;
+    }
+
+    /// Like `own`, for an unboxed value of `type` whose references were
+    /// taken for it, such as a struct copied out of a box.
+    public Value ownValue(Value value, AstType type) {
+        if (this.holdsReferences(type)) {
+            this.temporaries.add(new Temporary(value, type));
+        }
+        return value;
+    }
+
+    /// Takes a reference to `value` for a longer-lived owner. A temporary is
+    /// moved over as is; anything else has every box it holds retained.
+    public void claim(Value value, AstType type) {
+        for (int i = 0; i < this.temporaries.size(); i++) {
+            if (this.temporaries.get(i).value() == value) {
+                this.temporaries.remove(i);
+                return;
+            }
+        }
+        this.retainValue(value, type);
+    }
+
+    public void releaseTemporaries() {
+        for (var temporary : this.temporaries) {
+            this.releaseValue(temporary.value(), temporary.type());
+        }
+        this.temporaries.clear();
+    }
+
+    /// Retains every box held by `value`: the value itself if it is a box,
+    /// or the box fields of an unboxed struct.
+    public void retainValue(Value value, AstType type) {
+        switch (this.context.types().expand(type, this.context)) {
+            case AstType.Boxed _ -> this.retain(value);
+            case AstType.Struct struct -> {
+                for (int i = 0; i < struct.parameters().size(); i++) {
+                    var field = struct.parameters().get(i).type();
+                    if (this.holdsReferences(field)) {
+                        this.retainValue(
+                            this.codeBuilder.extractValue(
+                                value.typed(struct.toType(this.context)),
+                                i
+                            ),
+                            field
+                        );
+                    }
+                }
+            }
+            default -> {}
+        }
+    }
+
+    /// The counterpart of `retainValue`.
+    public void releaseValue(Value value, AstType type) {
+        switch (this.context.types().expand(type, this.context)) {
+            case AstType.Boxed(AstType payload) -> this.release(value, payload);
+            case AstType.Struct struct -> {
+                for (int i = 0; i < struct.parameters().size(); i++) {
+                    var field = struct.parameters().get(i).type();
+                    if (this.holdsReferences(field)) {
+                        this.releaseValue(
+                            this.codeBuilder.extractValue(
+                                value.typed(struct.toType(this.context)),
+                                i
+                            ),
+                            field
+                        );
+                    }
+                }
+            }
+            default -> {}
+        }
+    }
+
+    /// Releases the values held by every variable in `frame`.
+    public void releaseFrame(StackMap.Frame frame) {
+        for (var entry : frame.localVariables().entrySet()) {
+            var variable = entry.getValue();
+            var payload = this.payloadOf(variable.type());
+            if (payload != null) {
+                this.releaseVariable(
+                    entry.getKey(),
+                    this.codeBuilder.load(Type.ptr(), variable.stackSlot()),
+                    payload
+                );
+            } else if (this.holdsReferences(variable.type())) {
+                this.releaseContents(variable.stackSlot(), variable.type());
+            }
+        }
+    }
+
+    /// Drops a box that `variable` held. The boxes of a stack variable belong
+    /// to it alone, so only their contents need releasing.
+    public void releaseVariable(String variable, Value box, AstType payload) {
+        if (!this.escapes.onStack(variable)) {
+            this.release(box, payload);
+        } else if (this.holdsReferences(payload)) {
+            this.releaseContents(this.loadObjPtrFromWrapper(box), payload);
+        }
+    }
+
+    /// Releases the variables of every frame without popping them, ahead of
+    /// a return.
+    public void releaseFrames() {
+        for (var frame : this.stackMap.stackFrames()) {
+            this.releaseFrame(frame);
+        }
+    }
+
+    /// Increments the strong count of `box`. The runtime leaves immortal
+    /// boxes untouched, which takes a branch, so the retain is not inlined.
+    public void retain(Value box) {
+        this.codeBuilder.callVoid(
+            Identifier.global("acorn_retain").typed(
+                Type.function(Type.voidType(), List.of(Type.ptr()))
+            ),
+            List.of(box.typed(Type.ptr()))
+        );
+    }
+
+    /// Decrements the strong count of `box`; the runtime calls the drop glue
+    /// for `payload` once it reaches zero.
+    public void release(Value box, AstType payload) {
+        this.codeBuilder.callVoid(
+            Identifier.global("acorn_release").typed(
+                Type.function(Type.voidType(), List.of(Type.ptr(), Type.ptr()))
+            ),
+            List.of(
+                box.typed(Type.ptr()),
+                this.context.glue(this.module)
+                    .drop(payload, this.context)
+                    .typed(Type.ptr())
+            )
+        );
+    }
+
+    /// Releases every reference held by a value of `type` stored at
+    /// `address`. Used by drop glue on the payload of a dying box.
+    public void releaseContents(Value address, AstType type) {
+        switch (this.context.types().expand(type, this.context)) {
+            case AstType.Boxed(AstType payload) -> this.release(
+                this.codeBuilder.load(Type.ptr(), address),
+                payload
+            );
+            case AstType.Struct struct -> {
+                for (int i = 0; i < struct.parameters().size(); i++) {
+                    var field = struct.parameters().get(i).type();
+                    if (!this.holdsReferences(field)) {
+                        continue;
+                    }
+                    this.releaseContents(
+                        this.codeBuilder.getElementPtr(
+                            struct.toType(this.context),
+                            address,
+                            Constant.integer(0).typed(Type.integer(32)),
+                            Constant.integer(i).typed(Type.integer(32))
+                        ),
+                        field
+                    );
+                }
+            }
+            case AstType.Array array -> {
+                var element = array.param();
+                if (!this.holdsReferences(element)) {
+                    return;
+                }
+                var elements = this.elementsOf(array, address);
+                var length = this.lengthOf(array, address);
+                var elementPayload = this.payloadOf(element);
+                if (elementPayload != null) {
+                    this.codeBuilder.callVoid(
+                        Identifier.global("acorn_release_elements").typed(
+                            Type.function(
+                                Type.voidType(),
+                                List.of(
+                                    Type.ptr(),
+                                    Type.integer(64),
+                                    Type.ptr()
+                                )
+                            )
+                        ),
+                        List.of(
+                            elements.typed(Type.ptr()),
+                            length.typed(Type.integer(64)),
+                            this.context.glue(this.module)
+                                .drop(elementPayload, this.context)
+                                .typed(Type.ptr())
+                        )
+                    );
+                } else {
+                    this.forEachElement(
+                        array,
+                        elements,
+                        length,
+                        this.context.glue(this.module).releaseElement(
+                            element,
+                            this.context
+                        )
+                    );
+                }
+            }
+            default -> {}
+        }
+    }
+
+    Value elementsOf(AstType.Array array, Value payload) {
+        return this.codeBuilder.getElementPtr(
+            array.toType(this.context),
+            payload,
+            Constant.integer(0).typed(Type.integer(32)),
+            Constant.integer(1).typed(Type.integer(32))
+        );
+    }
+
+    Value lengthOf(AstType.Array array, Value payload) {
+        return this.codeBuilder.load(
+            Type.integer(64),
             this.codeBuilder.getElementPtr(
-                REF_COUNT_WRAPPER,
-                wrapperPtr,
+                array.toType(this.context),
+                payload,
                 Constant.integer(0).typed(Type.integer(32)),
                 Constant.integer(0).typed(Type.integer(32))
             )
         );
-        this.codeBuilder.store(
-            Constant.integer(1).typed(Type.integer(32)),
-            this.codeBuilder.getElementPtr(
-                REF_COUNT_WRAPPER,
-                wrapperPtr,
-                Constant.integer(0).typed(Type.integer(32)),
-                Constant.integer(1).typed(Type.integer(32))
+    }
+
+    /// Calls the element glue `glue` on each of the `length` elements at
+    /// `elements`.
+    void forEachElement(
+        AstType.Array array,
+        Value elements,
+        Value length,
+        Identifier glue
+    ) {
+        this.codeBuilder.callVoid(
+            Identifier.global("acorn_for_each").typed(
+                Type.function(
+                    Type.voidType(),
+                    List.of(
+                        Type.ptr(),
+                        Type.integer(64),
+                        Type.integer(64),
+                        Type.ptr()
+                    )
+                )
+            ),
+            List.of(
+                elements.typed(Type.ptr()),
+                length.typed(Type.integer(64)),
+                this.sizeOf(array.param()).typed(Type.integer(64)),
+                glue.typed(Type.ptr())
             )
         );
-        this.codeBuilder.store(
-            objPtr.typed(Type.ptr()),
-            this.codeBuilder.getElementPtr(
-                REF_COUNT_WRAPPER,
-                wrapperPtr,
-                Constant.integer(0).typed(Type.integer(32)),
-                Constant.integer(2).typed(Type.integer(32))
+    }
+
+    /// Whether compiling `box` allocates on the heap, rather than on the
+    /// stack or as an immortal global.
+    public boolean allocatesOnHeap(Expression.Box box) {
+        return !this.escapes.onStack(box) && !isConstant(box.value());
+    }
+
+    /// Gets a box for a new `payload` value that replaces `previous`. If
+    /// nothing else refers to `previous`, the runtime empties it and hands
+    /// it back with fresh counts, so the update needs no allocator traffic.
+    /// Otherwise `previous` is released and a new box is allocated.
+    public Value reuseBox(Value previous, AstType payload) {
+        var glue = this.context.glue(this.module);
+        return this.codeBuilder.callTyped(
+            Identifier.global("acorn_reuse").typed(
+                Type.function(
+                    Type.ptr(),
+                    List.of(
+                        Type.ptr(),
+                        Type.ptr(),
+                        Type.ptr(),
+                        Type.integer(64)
+                    )
+                )
+            ),
+            List.of(
+                previous.typed(Type.ptr()),
+                glue.clear(payload, this.context).typed(Type.ptr()),
+                glue.drop(payload, this.context).typed(Type.ptr()),
+                this.boxSize(payload).typed(Type.integer(64))
             )
         );
-        return wrapperPtr;
     }
 
-    public Value loadObjPtrFromWrapper(Value wrapperPtr) {
-        this.codeBuilder.comment(
-            "Loading ref count ptr from " + wrapperPtr.toString()
+    /// Write barrier for the box held in `slot`. Values are passed by sharing
+    /// a reference, so a box that is still shared is replaced by a private
+    /// copy before anything is written through it. This is what makes the
+    /// copy semantics cheap: passing a value costs a retain, and the copy
+    /// happens only on the first write, one level of boxing at a time.
+    public void unshare(Value slot, AstType type) {
+        var payload = this.payloadOf(type);
+        if (payload == null) {
+            return;
+        }
+        this.codeBuilder.callVoid(
+            Identifier.global("acorn_unshare").typed(
+                Type.function(Type.voidType(), List.of(Type.ptr(), Type.ptr()))
+            ),
+            List.of(
+                slot.typed(Type.ptr()),
+                this.context.glue(this.module)
+                    .copy(payload, this.context)
+                    .typed(Type.ptr())
+            )
         );
-        var o = this.codeBuilder.load(
-            Type.ptr(),
-            this.codeBuilder.getElementPtr(
-                REF_COUNT_WRAPPER,
-                wrapperPtr,
-                Constant.integer(0).typed(Type.integer(32)),
-                Constant.integer(2).typed(Type.integer(32))
+    }
+
+    /// Copies the payload of `box` into a fresh box. Used by copy glue.
+    public Value copyBox(Value box, AstType payload) {
+        if (
+            this.context.types().expand(payload, this.context) instanceof
+                AstType.Array array
+        ) {
+            var copy = this.codeBuilder.callTyped(
+                Identifier.global("acorn_copy_array").typed(
+                    Type.function(
+                        Type.ptr(),
+                        List.of(Type.ptr(), Type.integer(64), Type.integer(64))
+                    )
+                ),
+                List.of(
+                    box.typed(Type.ptr()),
+                    this.arrayBase(array.param()).typed(Type.integer(64)),
+                    this.sizeOf(array.param()).typed(Type.integer(64))
+                )
+            );
+            if (this.holdsReferences(array.param())) {
+                var payloadPtr = this.loadObjPtrFromWrapper(copy);
+                this.forEachElement(
+                    array,
+                    this.elementsOf(array, payloadPtr),
+                    this.lengthOf(array, payloadPtr),
+                    this.context.glue(this.module).retainElement(
+                        array.param(),
+                        this.context
+                    )
+                );
+            }
+            return copy;
+        }
+        var copy = this.allocateBox(payload);
+        var payloadType = payload.toType(this.context);
+        this.codeBuilder.store(
+            this.loadValueFromRefCount(payloadType, box).typed(payloadType),
+            this.loadObjPtrFromWrapper(copy)
+        );
+        this.retainContents(this.loadObjPtrFromWrapper(copy), payload);
+        return copy;
+    }
+
+    /// Takes a new reference to everything a value of `type` stored at
+    /// `address` refers to. The counterpart of `releaseContents`. Arrays only
+    /// exist boxed and are copied whole by `copyBox`.
+    public void retainContents(Value address, AstType type) {
+        switch (this.context.types().expand(type, this.context)) {
+            case AstType.Boxed _ -> this.retain(
+                this.codeBuilder.load(Type.ptr(), address)
+            );
+            case AstType.Struct struct -> {
+                for (int i = 0; i < struct.parameters().size(); i++) {
+                    var field = struct.parameters().get(i).type();
+                    if (!this.holdsReferences(field)) {
+                        continue;
+                    }
+                    this.retainContents(
+                        this.codeBuilder.getElementPtr(
+                            struct.toType(this.context),
+                            address,
+                            Constant.integer(0).typed(Type.integer(32)),
+                            Constant.integer(i).typed(Type.integer(32))
+                        ),
+                        field
+                    );
+                }
+            }
+            default -> {}
+        }
+    }
+
+    /// Gives up the box itself once its payload has been dropped.
+    public void deallocateBox(Value box, AstType payload) {
+        if (
+            this.context.types().expand(payload, this.context) instanceof
+                AstType.Array array
+        ) {
+            // the size of an array box depends on its length
+            this.codeBuilder.callVoid(
+                Identifier.global("acorn_dealloc_array").typed(
+                    Type.function(
+                        Type.voidType(),
+                        List.of(Type.ptr(), Type.integer(64), Type.integer(64))
+                    )
+                ),
+                List.of(
+                    box.typed(Type.ptr()),
+                    this.arrayBase(array.param()).typed(Type.integer(64)),
+                    this.sizeOf(array.param()).typed(Type.integer(64))
+                )
+            );
+            return;
+        }
+        this.codeBuilder.callVoid(
+            Identifier.global("acorn_dealloc").typed(
+                Type.function(
+                    Type.voidType(),
+                    List.of(Type.ptr(), Type.integer(64))
+                )
+            ),
+            List.of(
+                box.typed(Type.ptr()),
+                this.boxSize(payload).typed(Type.integer(64))
             )
         );
-        this.codeBuilder.comment(
-            "Finishing loading ref count ptr from " + wrapperPtr.toString()
+    }
+
+    /// The payload type if `type` is a box, otherwise null.
+    public AstType payloadOf(AstType type) {
+        return this.context.types().intern(type, this.context) instanceof
+            AstType.Boxed(AstType payload)
+            ? payload
+            : null;
+    }
+
+    /// Whether dropping a value of `type` has to release anything.
+    public boolean holdsReferences(AstType type) {
+        return switch (this.context.types().expand(type, this.context)) {
+            case AstType.Boxed _ -> true;
+            case AstType.Array array -> this.holdsReferences(array.param());
+            case AstType.Struct struct -> struct
+                .parameters()
+                .stream()
+                .anyMatch(x -> this.holdsReferences(x.type()));
+            default -> false;
+        };
+    }
+
+    /// Emits a trace comment. The text is only built when the context asks
+    /// for trace comments, so lean builds pay nothing for them.
+    public void comment(Supplier<String> text) {
+        if (this.context.traceComments()) {
+            this.codeBuilder.comment(text.get());
+        }
+    }
+
+    /// The payload of a box sits directly after its header, so this is a
+    /// single constant-offset GEP.
+    public Value loadObjPtrFromWrapper(Value wrapperPtr) {
+        this.comment(() -> "Loading ref count ptr from " + wrapperPtr);
+        var o = this.codeBuilder.getElementPtr(
+            REF_COUNT_WRAPPER,
+            wrapperPtr,
+            Constant.integer(1).typed(Type.integer(32))
+        );
+        this.comment(() ->
+            "Finishing loading ref count ptr from " + wrapperPtr
         );
         return o;
     }
 
     public Value loadValueFromRefCount(Type expectedType, Value wrapperPtr) {
-        this.codeBuilder.comment(
-            "Loading ref count value from " + wrapperPtr.toString()
-        );
+        this.comment(() -> "Loading ref count value from " + wrapperPtr);
         var o = this.codeBuilder.load(
             expectedType,
             loadObjPtrFromWrapper(wrapperPtr)
         );
-        this.codeBuilder.comment(
-            "Stopping loading ref count value from " + wrapperPtr.toString()
+        this.comment(() ->
+            "Stopping loading ref count value from " + wrapperPtr
         );
         return o;
     }
 
+    /// The elements of an array follow its length in the payload, so an
+    /// element is a single GEP away from the payload pointer.
     public Value ptrToArrayElement(
-        Type elementType,
-        Value arrayPtr,
+        AstType.Array array,
+        Value payloadPtr,
         Expression offset
     ) {
         return this.codeBuilder.getElementPtr(
-            Type.array(0, elementType),
-            arrayPtr,
+            array.toType(this.context),
+            payloadPtr,
             Constant.integer(0).typed(Type.integer(32)),
+            Constant.integer(1).typed(Type.integer(32)),
             offset
                 .compileValue(this)
                 .typed(offset.inferType(this).toType(this.context))
         );
     }
+
+    /// Size in bytes of a value of `type`. It is left to LLVM, as the offset
+    /// of the second element of an array starting at null, so it follows
+    /// the data layout of whatever target the binary is built for.
+    public Value sizeOf(AstType type) {
+        return this.sizeOf(type.toType(this.context));
+    }
+
+    Value sizeOf(Type type) {
+        var end = this.codeBuilder.getElementPtr(
+            type,
+            Constant.nullPtr(),
+            Constant.integer(1).typed(Type.integer(32))
+        );
+        return this.codeBuilder.ptrToInt(
+            end.typed(Type.ptr()),
+            Type.integer(64)
+        );
+    }
+
+    /// Size in bytes of a box holding a `payload`, header included.
+    public Value boxSize(AstType payload) {
+        return this.sizeOf(
+            Type.struct(
+                List.of(REF_COUNT_WRAPPER, payload.toType(this.context))
+            )
+        );
+    }
+
+    /// Offset of the first element in an array box of `element`s: the
+    /// header, the length and any padding the elements are aligned to.
+    public Value arrayBase(AstType element) {
+        return this.sizeOf(
+            Type.struct(List.of(REF_COUNT_WRAPPER, this.arrayType(0, element)))
+        );
+    }
 }
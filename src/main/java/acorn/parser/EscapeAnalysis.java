@@ -0,0 +1,146 @@
+package acorn.parser;
+
+import acorn.parser.ast.Expression;
+import acorn.parser.ast.Header;
+import acorn.parser.ast.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/// Finds the boxes of a function that never outlive it.
+///
+/// A local variable is kept on the stack when every value assigned to it is a
+/// fresh `Box` and it is only ever read in place: unboxed, or as the base of a
+/// field access or subscript. Its boxes then become `alloca`s that are never
+/// retained, so they skip reference counting entirely.
+public class EscapeAnalysis {
+
+    Set<Expression> stackBoxes = Collections.newSetFromMap(
+        new IdentityHashMap<>()
+    );
+    Set<String> stackVariables = new HashSet<>();
+
+    Map<String, List<Expression>> assignments = new HashMap<>();
+    Set<String> escaping = new HashSet<>();
+
+    public static EscapeAnalysis analyze(Header.Function function) {
+        var analysis = new EscapeAnalysis();
+        if (function.statements() == null) {
+            return analysis;
+        }
+        for (var parameter : function.parameters()) {
+            analysis.escaping.add(parameter.name());
+        }
+        for (var statement : function.statements()) {
+            analysis.visit(statement);
+        }
+
+        for (var entry : analysis.assignments.entrySet()) {
+            if (
+                !analysis.escaping.contains(entry.getKey()) &&
+                entry
+                    .getValue()
+                    .stream()
+                    .allMatch(x -> x instanceof Expression.Box)
+            ) {
+                analysis.stackVariables.add(entry.getKey());
+                analysis.stackBoxes.addAll(entry.getValue());
+            }
+        }
+        return analysis;
+    }
+
+    public boolean onStack(Expression.Box box) {
+        return this.stackBoxes.contains(box);
+    }
+
+    public boolean onStack(String variable) {
+        return this.stackVariables.contains(variable);
+    }
+
+    /// Heap allocations the function no longer makes. Boxes that are unboxed
+    /// right away are already gone by now; see `Simplifier`.
+    public int removedAllocations() {
+        return this.stackBoxes.size();
+    }
+
+    void visit(Statement statement) {
+        switch (statement) {
+            case Statement.Ret ret -> {
+                if (ret.expr() != null) {
+                    this.visit(ret.expr(), true);
+                }
+            }
+            case Statement.StoreValue store -> {
+                if (store.path() instanceof Expression.Variable variable) {
+                    this.assignments.computeIfAbsent(variable.name(), _ ->
+                        new ArrayList<>()
+                    ).add(store.expr());
+                    if (store.expr() instanceof Expression.Box box) {
+                        this.visit(box.value(), true);
+                    } else {
+                        this.visit(store.expr(), true);
+                    }
+                } else {
+                    this.visit(store.path(), false);
+                    this.visit(store.expr(), true);
+                }
+            }
+            case Statement.Dropping dropping -> this.visit(
+                dropping.expr(),
+                false
+            );
+        }
+    }
+
+    /// @param escapes Whether the value of `expression` may be retained by
+    /// something that outlives the statement
+    void visit(Expression expression, boolean escapes) {
+        switch (expression) {
+            case Expression.Variable variable -> {
+                if (escapes) {
+                    this.escaping.add(variable.name());
+                }
+            }
+            case Expression.Box box -> this.visit(box.value(), true);
+            case Expression.Unbox unbox -> this.visit(unbox.value(), false);
+            case Expression.FieldAccess access -> this.visit(
+                access.baseValuePtr(),
+                false
+            );
+            case Expression.Subscript subscript -> {
+                this.visit(subscript.baseArrayStackPtr(), false);
+                this.visit(subscript.subValue(), false);
+            }
+            case Expression.Invocation invocation -> {
+                this.visit(invocation.functionPointer(), true);
+                for (var arg : invocation.args()) {
+                    this.visit(arg, true);
+                }
+            }
+            case Expression.Addition addition -> {
+                this.visit(addition.left(), escapes);
+                this.visit(addition.right(), escapes);
+            }
+            case Expression.StructLiteral literal -> {
+                for (var field : literal.fields()) {
+                    this.visit(field.value(), true);
+                }
+            }
+            case Expression.ArrayLiteral literal -> {
+                for (var element : literal.fields()) {
+                    this.visit(element, true);
+                }
+            }
+            case Expression.PathAccess _,
+                Expression.Integer _,
+                Expression.CStringValue _,
+                Expression.StringValue _ -> {}
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package acorn.parser;
+
+import acorn.parser.ast.AstType;
+import acorn.parser.ctx.GlobalContext;
+import acorn.parser.ctx.StackMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import llvm4j.module.Module;
+import llvm4j.module.type.Type;
+import llvm4j.module.value.Identifier;
+
+/// The per-type helper functions of one module.
+///
+/// Drop glue takes a box whose strong count reached zero, releases every
+/// reference its payload holds and then deallocates it. Clear glue releases
+/// those references but keeps the box, so that its memory can be reused.
+/// Copy glue takes a shared box and returns a fresh box with a copy of its
+/// payload, retaining everything the copy refers to.
+///
+/// Element glue works on one element of an array of unboxed structs, given
+/// its address: release-element glue releases the references it holds and
+/// retain-element glue retains them. The runtime runs it over every element.
+///
+/// Glue is named when it is first asked for and emitted once the module's
+/// headers are done, since a glue body may ask for more glue, or for itself
+/// when the payload type is recursive.
+///
+/// Glue and the module's other private globals are named after the source
+/// file the module is compiled from, so fragments built in different runs
+/// can be linked together without two of them defining the same symbol.
+public class Glue {
+
+    enum Kind {
+        DROP,
+        CLEAR,
+        COPY,
+        RELEASE_ELEMENT,
+        RETAIN_ELEMENT,
+    }
+
+    record Pending(Kind kind, AstType payload) {}
+
+    Map<AstType, Identifier> drops = new IdentityHashMap<>();
+    Map<AstType, Identifier> clears = new IdentityHashMap<>();
+    Map<AstType, Identifier> copies = new IdentityHashMap<>();
+    Map<AstType, Identifier> elementReleases = new IdentityHashMap<>();
+    Map<AstType, Identifier> elementRetains = new IdentityHashMap<>();
+    Deque<Pending> pending = new ArrayDeque<>();
+
+    String prefix;
+    int names;
+
+    /// @param unitHash The hash of the source file the module holds; see
+    /// `BuildCache.Unit`
+    public Glue(String unitHash) {
+        this.prefix = "acorn_" + unitHash.substring(0, 16) + "_";
+    }
+
+    /// A new name for a private global of the module. `kind` only makes the
+    /// IR easier to read.
+    public Identifier name(String kind) {
+        return Identifier.global(this.prefix + kind + this.names++);
+    }
+
+    /// The drop glue for boxes holding a `payload`.
+    public Identifier drop(AstType payload, GlobalContext context) {
+        return this.request(Kind.DROP, this.drops, payload, context);
+    }
+
+    /// The clear glue for boxes holding a `payload`.
+    public Identifier clear(AstType payload, GlobalContext context) {
+        return this.request(Kind.CLEAR, this.clears, payload, context);
+    }
+
+    /// The copy glue for boxes holding a `payload`.
+    public Identifier copy(AstType payload, GlobalContext context) {
+        return this.request(Kind.COPY, this.copies, payload, context);
+    }
+
+    /// The release-element glue for arrays of `element`.
+    public Identifier releaseElement(AstType element, GlobalContext context) {
+        return this.request(
+            Kind.RELEASE_ELEMENT,
+            this.elementReleases,
+            element,
+            context
+        );
+    }
+
+    /// The retain-element glue for arrays of `element`.
+    public Identifier retainElement(AstType element, GlobalContext context) {
+        return this.request(
+            Kind.RETAIN_ELEMENT,
+            this.elementRetains,
+            element,
+            context
+        );
+    }
+
+    Identifier request(
+        Kind kind,
+        Map<AstType, Identifier> functions,
+        AstType payload,
+        GlobalContext context
+    ) {
+        var canonical = context.types().expand(payload, context);
+        var function = functions.get(canonical);
+        if (function == null) {
+            function = this.name(kind.name().toLowerCase());
+            functions.put(canonical, function);
+            this.pending.add(new Pending(kind, canonical));
+        }
+        return function;
+    }
+
+    public void emit(Module.Builder module, GlobalContext context) {
+        while (!this.pending.isEmpty()) {
+            var next = this.pending.removeFirst();
+            var payload = next.payload();
+            var box = Identifier.local("box");
+            var name = switch (next.kind()) {
+                case DROP -> this.drops.get(payload);
+                case CLEAR -> this.clears.get(payload);
+                case COPY -> this.copies.get(payload);
+                case RELEASE_ELEMENT -> this.elementReleases.get(payload);
+                case RETAIN_ELEMENT -> this.elementRetains.get(payload);
+            };
+            module.withFunction(name, fb -> {
+                fb.withReturnType(
+                    next.kind() == Kind.COPY ? Type.ptr() : Type.voidType()
+                );
+                fb.withParameter(box.parameterized(Type.ptr()));
+                fb.withCode(bb -> {
+                    var cg = new CodeGenerator(
+                        context,
+                        module,
+                        fb,
+                        bb,
+                        new StackMap(new ArrayList<>()),
+                        new IdentityHashMap<>(),
+                        new ArrayList<>(),
+                        new EscapeAnalysis(),
+                        new IdentityHashMap<>()
+                    );
+                    switch (next.kind()) {
+                        case DROP -> {
+                            cg.releaseContents(
+                                cg.loadObjPtrFromWrapper(box),
+                                payload
+                            );
+                            cg.deallocateBox(box, payload);
+                            bb.ret();
+                        }
+                        case CLEAR -> {
+                            cg.releaseContents(
+                                cg.loadObjPtrFromWrapper(box),
+                                payload
+                            );
+                            bb.ret();
+                        }
+                        case COPY -> bb.ret(
+                            cg.copyBox(box, payload).typed(Type.ptr())
+                        );
+                        // here `box` is the address of an element
+                        case RELEASE_ELEMENT -> {
+                            cg.releaseContents(box, payload);
+                            bb.ret();
+                        }
+                        case RETAIN_ELEMENT -> {
+                            cg.retainContents(box, payload);
+                            bb.ret();
+                        }
+                    }
+                    return bb;
+                });
+                return fb;
+            });
+        }
+    }
+}
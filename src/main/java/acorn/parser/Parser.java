@@ -1,9 +1,11 @@
 package acorn.parser;
 
 import acorn.parser.ast.*;
-import acorn.reader.Reader;
+import acorn.reader.TokenReader;
 import acorn.token.SpannedException;
 import acorn.token.Token;
+import acorn.token.TokenBuffer;
+import acorn.token.Tokenizer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
@@ -11,33 +13,26 @@ import java.util.function.Supplier;
 
 public class Parser {
 
-    Reader<List<Token>, Token> reader;
+    TokenReader reader;
 
-    public static Parser create(List<Token> tokens) {
+    public static Parser create(TokenBuffer tokens) {
         var p = new Parser();
-        p.reader = Reader.create(
-            tokens,
-            List::get,
-            List::size,
-            (a, b) -> {
-                throw new SpannedException(
-                    a.span(),
-                    new SpannedException.ErrorType.UnexpectedToken(
-                        List.of(b),
-                        a.getClass()
-                    )
-                );
-            },
-            () -> {
-                throw new SpannedException(
-                    tokens.getLast().span(),
-                    new SpannedException.ErrorType.UnexpectedEOF()
-                );
-            }
-        );
+        p.reader = TokenReader.create(tokens);
         return p;
     }
 
+    public static List<Header> parseSource(
+        CharSequence source,
+        String fileName
+    ) {
+        var tokens = Tokenizer.create(
+            source,
+            fileName,
+            new TokenBuffer()
+        ).tokenize();
+        return Simplifier.simplify(Parser.create(tokens).parseHeaders(true));
+    }
+
     public List<Annotation> parseAnnotations() {
         var list = new ArrayList<Annotation>();
 
@@ -84,9 +79,6 @@ public class Parser {
         ) {
             var annotations = parseAnnotations();
             var peek = this.reader.peek();
-            if (peek == null) {
-                break;
-            }
             switch (peek) {
                 case Token.FnKeyword _ -> list.add(parseFunction(annotations));
                 case Token.TypeKeyword _ -> list.add(
@@ -0,0 +1,143 @@
+package acorn.parser;
+
+import acorn.parser.ast.Expression;
+import acorn.parser.ast.Header;
+import acorn.parser.ast.Statement;
+import java.util.List;
+
+/// Rewrites parsed headers before they are cached or compiled.
+///
+/// The parser boxes every literal and every sum, so `a + b + c` reaches the
+/// code generator as `Box(Addition(Unbox(Box(Addition(...))), ...))`. This
+/// pass cancels each `Unbox(Box(x))` whose `x` is already a plain value, so
+/// arithmetic stays in registers and only the value that is finally stored,
+/// passed or returned gets boxed.
+public class Simplifier {
+
+    public static List<Header> simplify(List<Header> headers) {
+        return headers.stream().map(Simplifier::simplify).toList();
+    }
+
+    public static Header simplify(Header header) {
+        return switch (header) {
+            case Header.Namespace namespace -> new Header.Namespace(
+                namespace.name(),
+                simplify(namespace.headers()),
+                namespace.annotations(),
+                namespace.span()
+            );
+            case Header.Function function -> new Header.Function(
+                function.name(),
+                function.returnType(),
+                function.parameters(),
+                function.statements() == null
+                    ? null
+                    : function
+                        .statements()
+                        .stream()
+                        .map(Simplifier::simplify)
+                        .toList(),
+                function.annotations(),
+                function.span()
+            );
+            case Header.TypeAlias alias -> alias;
+        };
+    }
+
+    public static Statement simplify(Statement statement) {
+        return switch (statement) {
+            case Statement.Ret ret -> new Statement.Ret(
+                ret.expr() == null ? null : simplify(ret.expr())
+            );
+            case Statement.StoreValue store -> new Statement.StoreValue(
+                simplify(store.path()),
+                simplify(store.expr())
+            );
+            case Statement.Dropping dropping -> {
+                // a discarded box of a plain value need not exist
+                var expr = simplify(dropping.expr());
+                if (
+                    expr instanceof Expression.Box(Expression value) &&
+                    isPlain(value)
+                ) {
+                    expr = value;
+                }
+                yield new Statement.Dropping(expr);
+            }
+        };
+    }
+
+    public static Expression simplify(Expression expression) {
+        return switch (expression) {
+            case Expression.Unbox(Expression value) -> {
+                var inner = simplify(value);
+                if (
+                    inner instanceof Expression.Box(Expression boxed) &&
+                    isPlain(boxed)
+                ) {
+                    yield boxed;
+                }
+                yield new Expression.Unbox(inner);
+            }
+            case Expression.Box(Expression value) -> new Expression.Box(
+                simplify(value)
+            );
+            case Expression.Addition addition -> new Expression.Addition(
+                simplify(addition.left()),
+                simplify(addition.right()),
+                addition.span()
+            );
+            case Expression.Invocation invocation -> new Expression.Invocation(
+                simplify(invocation.functionPointer()),
+                invocation.args().stream().map(Simplifier::simplify).toList(),
+                invocation.span()
+            );
+            case Expression.FieldAccess access -> new Expression.FieldAccess(
+                simplify(access.baseValuePtr()),
+                access.identifier(),
+                access.span()
+            );
+            case Expression.Subscript subscript -> new Expression.Subscript(
+                simplify(subscript.baseArrayStackPtr()),
+                simplify(subscript.subValue()),
+                subscript.span()
+            );
+            case Expression.StructLiteral literal -> {
+                var fields = literal
+                    .fields()
+                    .stream()
+                    .map(x ->
+                        new Expression.StructLiteral.Field(
+                            x.name(),
+                            x.type(),
+                            simplify(x.value())
+                        )
+                    )
+                    .toList();
+                yield new Expression.StructLiteral(fields, literal.span());
+            }
+            case Expression.ArrayLiteral literal -> new Expression.ArrayLiteral(
+                literal.fields().stream().map(Simplifier::simplify).toList(),
+                literal.span()
+            );
+            case Expression.Variable _,
+                Expression.PathAccess _,
+                Expression.Integer _,
+                Expression.CStringValue _,
+                Expression.StringValue _ -> expression;
+        };
+    }
+
+    /// Whether `value` is already fully unboxed, so that boxing it and
+    /// unboxing the result hands back the same value. A struct literal is
+    /// one too: without its box it is built straight into the memory it
+    /// ends up in, such as the payload of the struct it is a field of.
+    static boolean isPlain(Expression value) {
+        return (
+            value instanceof Expression.Integer ||
+            value instanceof Expression.Addition ||
+            value instanceof Expression.Unbox ||
+            value instanceof Expression.StructLiteral
+        );
+    }
+}
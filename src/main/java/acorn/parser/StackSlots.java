@@ -0,0 +1,146 @@
+package acorn.parser;
+
+import acorn.parser.ast.Expression;
+import acorn.parser.ast.Statement;
+import java.util.List;
+import llvm4j.module.type.Type;
+
+/// Hoists the stack slots of a function into its entry block.
+///
+/// mem2reg only promotes allocas in the entry block, so every slot is made
+/// before any other code: one per local variable, per box kept on the stack
+/// and per struct literal built outside a box. This walks the statements the
+/// way the code generator will, declaring variables as it goes so that later
+/// statements can infer their types, and leaves the slots in
+/// `CodeGenerator.slots` keyed by the node that uses them.
+public class StackSlots {
+
+    CodeGenerator gen;
+
+    StackSlots(CodeGenerator gen) {
+        this.gen = gen;
+    }
+
+    public static void hoist(CodeGenerator gen, List<Statement> statements) {
+        var slots = new StackSlots(gen);
+        // the code generator declares each variable again once it gets there
+        gen.stackMap().pushFrame();
+        for (var statement : statements) {
+            slots.visit(statement);
+        }
+        gen.stackMap().popFrame();
+    }
+
+    void put(Object node, Type type) {
+        this.gen.slots().put(node, this.gen.codeBuilder().alloca(type));
+    }
+
+    void visit(Statement statement) {
+        switch (statement) {
+            case Statement.Ret ret -> {
+                if (ret.expr() != null) {
+                    this.visit(ret.expr(), false);
+                }
+            }
+            case Statement.StoreValue store -> {
+                var declares = false;
+                if (
+                    store.path() instanceof Expression.Variable variable &&
+                    !this.gen.stackMap().hasLocalVariable(variable.name())
+                ) {
+                    declares = true;
+                    var type = store.expr().inferType(this.gen);
+                    this.put(store, type.toType(this.gen.context()));
+                    this.gen.stackMap().storeVariable(
+                        variable.name(),
+                        this.gen.slots().get(store),
+                        type,
+                        variable.span(),
+                        this.gen.context()
+                    );
+                }
+                if (
+                    store.reuses(this.gen, declares) &&
+                    store.expr() instanceof Expression.Box box
+                ) {
+                    // the new payload is computed on its own, then written
+                    // into whichever box it ends up in
+                    this.visit(box.value(), false);
+                } else {
+                    this.visit(store.expr(), false);
+                }
+                this.visit(store.path(), false);
+            }
+            case Statement.Dropping dropping -> this.visit(
+                dropping.expr(),
+                false
+            );
+        }
+    }
+
+    /// @param inPlace Whether `expression` is built straight into memory that
+    /// already exists, so that it needs no slot of its own
+    void visit(Expression expression, boolean inPlace) {
+        switch (expression) {
+            case Expression.Box box -> {
+                if (this.gen.escapes().onStack(box)) {
+                    this.put(box, this.gen.stackBoxType(box));
+                } else if (CodeGenerator.isConstant(box)) {
+                    // an immortal global; nothing inside it is compiled
+                    return;
+                }
+                this.visit(
+                    box.value(),
+                    box.value() instanceof Expression.StructLiteral ||
+                    box.value() instanceof Expression.ArrayLiteral
+                );
+            }
+            case Expression.StructLiteral literal -> {
+                if (!inPlace) {
+                    this.put(
+                        literal,
+                        literal.inferType(this.gen).toType(this.gen.context())
+                    );
+                }
+                for (var field : literal.fields()) {
+                    this.visit(
+                        field.value(),
+                        field.value() instanceof Expression.StructLiteral
+                    );
+                }
+            }
+            case Expression.ArrayLiteral literal -> {
+                for (var element : literal.fields()) {
+                    this.visit(
+                        element,
+                        element instanceof Expression.StructLiteral
+                    );
+                }
+            }
+            case Expression.Unbox unbox -> this.visit(unbox.value(), false);
+            case Expression.FieldAccess access -> this.visit(
+                access.baseValuePtr(),
+                false
+            );
+            case Expression.Subscript subscript -> {
+                this.visit(subscript.baseArrayStackPtr(), false);
+                this.visit(subscript.subValue(), false);
+            }
+            case Expression.Invocation invocation -> {
+                this.visit(invocation.functionPointer(), false);
+                for (var arg : invocation.args()) {
+                    this.visit(arg, false);
+                }
+            }
+            case Expression.Addition addition -> {
+                this.visit(addition.left(), false);
+                this.visit(addition.right(), false);
+            }
+            case Expression.Variable _,
+                Expression.PathAccess _,
+                Expression.Integer _,
+                Expression.CStringValue _,
+                Expression.StringValue _ -> {}
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package acorn.parser.ast;
 
+import java.io.Serializable;
 import java.util.List;
 
-public record Annotation(String name, List<Expression> values) {}
+public record Annotation(String name, List<Expression> values) implements
+    Serializable {}
@@ -2,27 +2,14 @@ package acorn.parser.ast;
 
 import acorn.parser.ctx.GlobalContext;
 import acorn.token.SpanData;
-import acorn.token.SpannedException;
+import java.io.Serializable;
 import java.util.List;
 import java.util.stream.Collectors;
 import llvm4j.module.type.Type;
 
-public sealed interface AstType {
+public sealed interface AstType extends Serializable {
     default AstType unbox(GlobalContext context) {
-        if (this instanceof Boxed(AstType type)) {
-            return type.unbox(context);
-        }
-        if (this instanceof Unresolved(String name, SpanData span)) {
-            if (context.typeAliases().containsKey(name)) {
-                return context.typeAliases().get(name).unbox(context);
-            } else {
-                throw new SpannedException(
-                    span,
-                    new SpannedException.ErrorType.VariableDoesNotExist(name)
-                );
-            }
-        }
-        return this;
+        return context.types().unbox(this, context);
     }
 
     Type toType(GlobalContext context);
@@ -31,8 +18,8 @@ public sealed interface AstType {
         return this.toString();
     }
 
-    default boolean typeEquals(AstType other) {
-        return this.toString().equals(other.toString());
+    default boolean typeEquals(AstType other, GlobalContext context) {
+        return context.types().equal(this, other, context);
     }
 
     SpanData span();
@@ -40,7 +27,8 @@ public sealed interface AstType {
     record Unresolved(String name, SpanData span) implements AstType {
         @Override
         public Type toType(GlobalContext context) {
-            return context.typeAliases().get(this.name).toType(context);
+            // interning a recursive alias can hand back this very name
+            return context.types().expand(this, context).toType(context);
         }
 
         @Override
@@ -173,7 +161,14 @@ public sealed interface AstType {
     record Array(AstType param, SpanData span) implements AstType {
         @Override
         public Type toType(GlobalContext context) {
-            return Type.struct(List.of(Type.integer(64), Type.ptr()));
+            // the length, then the elements in the same allocation; the
+            // element count itself is only known per literal
+            return Type.struct(
+                List.of(
+                    Type.integer(64),
+                    Type.array(0, this.param.toType(context))
+                )
+            );
         }
 
         @Override
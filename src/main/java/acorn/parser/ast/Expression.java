@@ -3,42 +3,56 @@ package acorn.parser.ast;
 import acorn.parser.CodeGenerator;
 import acorn.token.SpanData;
 import acorn.token.SpannedException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import llvm4j.module.type.Type;
 import llvm4j.module.value.Constant;
 import llvm4j.module.value.Identifier;
 import llvm4j.module.value.Value;
 
-public sealed interface Expression {
+public sealed interface Expression extends Serializable {
     SpanData span();
     Value compileInnerValue(CodeGenerator builder);
-    AstType inferType(CodeGenerator builder);
+    AstType inferInnerType(CodeGenerator builder);
+
+    /// Infers the type of this expression once per function; the result is
+    /// kept in the code generator's type table, keyed by node identity.
+    default AstType inferType(CodeGenerator builder) {
+        var type = builder.types().get(this);
+        if (type == null) {
+            type = this.inferInnerType(builder);
+            builder.types().put(this, type);
+        }
+        return type;
+    }
 
     default void typecheck(CodeGenerator builder) {}
 
     default Value compileValue(CodeGenerator builder) {
-        builder
-            .codeBuilder()
-            .comment("ENTER " + this.toString().replaceAll("\n", "[nl]"));
+        builder.comment(() ->
+            "ENTER " + this.toString().replaceAll("\n", "[nl]")
+        );
         this.typecheck(builder);
         var h = this.compileInnerValue(builder);
-        builder
-            .codeBuilder()
-            .comment("EXIT " + this.toString().replaceAll("\n", "[nl]"));
-        builder.codeBuilder().comment(" -- compiled into " + h);
+        builder.comment(() ->
+            "EXIT " + this.toString().replaceAll("\n", "[nl]")
+        );
+        builder.comment(() -> " -- compiled into " + h);
         return h;
     }
 
     default Value compilePath(CodeGenerator builder) {
-        builder
-            .codeBuilder()
-            .comment("ENTER PATH " + this.toString().replaceAll("\n", "[nl]"));
+        builder.comment(() ->
+            "ENTER PATH " + this.toString().replaceAll("\n", "[nl]")
+        );
         this.typecheck(builder);
         var ip = compileInnerPath(builder);
-        builder
-            .codeBuilder()
-            .comment("EXIT PATH " + this.toString().replaceAll("\n", "[nl]"));
-        builder.codeBuilder().comment(" -- compiled into " + ip);
+        builder.comment(() ->
+            "EXIT PATH " + this.toString().replaceAll("\n", "[nl]")
+        );
+        builder.comment(() -> " -- compiled into " + ip);
         return ip;
     }
 
@@ -52,7 +66,10 @@ public sealed interface Expression {
             );
         }
         if (this instanceof Unbox(Expression value)) {
-            return builder.loadObjPtrFromWrapper(value.compilePath(builder));
+            var box = builder
+                .codeBuilder()
+                .load(Type.ptr(), value.compilePath(builder));
+            return builder.loadObjPtrFromWrapper(box);
         }
         throw new SpannedException(
             this.span(),
@@ -62,6 +79,19 @@ public sealed interface Expression {
         );
     }
 
+    /// The path of something about to be written to. Every box the write goes
+    /// through is made safe to modify first; see `CodeGenerator.unshare`.
+    default Value compileMutablePath(CodeGenerator builder) {
+        if (this instanceof Unbox(Expression value)) {
+            var slot = value.compileMutablePath(builder);
+            builder.unshare(slot, value.inferType(builder));
+            return builder.loadObjPtrFromWrapper(
+                builder.codeBuilder().load(Type.ptr(), slot)
+            );
+        }
+        return this.compilePath(builder);
+    }
+
     default Expression debox() {
         if (this instanceof Box(Expression value)) {
             return value.debox();
@@ -118,7 +148,7 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             if (builder.context().functions().containsKey(name)) {
                 return builder.context().functions().get(name).ptrType();
             }
@@ -164,7 +194,7 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return this.convertIntoVariable().inferType(builder);
         }
     }
@@ -200,7 +230,7 @@ public sealed interface Expression {
                     );
                 return null;
             } else {
-                return builder
+                var result = builder
                     .codeBuilder()
                     .callTyped(
                         functionPointer
@@ -219,11 +249,16 @@ public sealed interface Expression {
                             )
                             .toList()
                     );
+                // a returned value comes with references for the caller
+                var payload = builder.payloadOf(returnType);
+                return payload == null
+                    ? builder.ownValue(result, returnType)
+                    : builder.own(result, payload);
             }
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return (
                 (AstType.Function) functionPointer.inferType(builder)
             ).returned();
@@ -250,7 +285,12 @@ public sealed interface Expression {
                     var parameter = this.args().get(i);
                     var parameterType = parameter.inferType(builder);
                     var argumentType = this.args().get(i).inferType(builder);
-                    if (!parameterType.typeEquals(argumentType)) {
+                    if (
+                        !parameterType.typeEquals(
+                            argumentType,
+                            builder.context()
+                        )
+                    ) {
                         throw new SpannedException(
                             this.span(),
                             new SpannedException.ErrorType.WrongType(
@@ -288,13 +328,17 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return left.inferType(builder);
         }
 
         @Override
         public void typecheck(CodeGenerator builder) {
-            if (!left.inferType(builder).typeEquals(right.inferType(builder))) {
+            if (
+                !left
+                    .inferType(builder)
+                    .typeEquals(right.inferType(builder), builder.context())
+            ) {
                 throw new SpannedException(
                     right.span(),
                     new SpannedException.ErrorType.WrongType(
@@ -313,7 +357,7 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return new AstType.Integer(32, span);
         }
     }
@@ -321,7 +365,7 @@ public sealed interface Expression {
     record CStringValue(String value, SpanData span) implements Expression {
         @Override
         public Value compileInnerValue(CodeGenerator builder) {
-            var g = Identifier.globalRandom();
+            var g = builder.context().glue(builder.module()).name("cstr");
             builder
                 .module()
                 .withGlobalVariable(g, Constant.c_str(value + "\0"));
@@ -329,7 +373,7 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return new AstType.LibCPointer(span);
         }
     }
@@ -341,7 +385,7 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return new AstType.LibCPointer(span);
         }
     }
@@ -354,16 +398,39 @@ public sealed interface Expression {
 
         @Override
         public Value compileInnerValue(CodeGenerator builder) {
-            return builder.wrapValueInRefCount(
-                value
-                    .compileValue(builder)
-                    .typed(value.inferType(builder).toType(builder.context())),
-                128
-            );
+            if (
+                !builder.escapes().onStack(this) &&
+                CodeGenerator.isConstant(this)
+            ) {
+                return builder.immortalBox(this);
+            }
+            if (value instanceof ArrayLiteral literal) {
+                return literal.compileBoxed(builder, this);
+            }
+            if (value instanceof StructLiteral literal) {
+                var box = builder.newBox(this);
+                literal.compileInto(
+                    builder,
+                    builder.loadObjPtrFromWrapper(box)
+                );
+                return box;
+            }
+            var compiled = value.compileValue(builder);
+            builder.claim(compiled, value.inferType(builder));
+            var box = builder.newBox(this);
+            builder
+                .codeBuilder()
+                .store(
+                    compiled.typed(
+                        value.inferType(builder).toType(builder.context())
+                    ),
+                    builder.loadObjPtrFromWrapper(box)
+                );
+            return box;
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return new AstType.Boxed(value.inferType(builder));
         }
     }
@@ -374,19 +441,40 @@ public sealed interface Expression {
             return this.value.span();
         }
 
+        /// Unboxing a value that is not boxed, such as an array's `length`,
+        /// leaves it as it is, so plain values can be used wherever the
+        /// parser unboxes implicitly, as in `a.length + 1`.
         @Override
         public Value compileInnerValue(CodeGenerator builder) {
-            return builder.loadValueFromRefCount(
-                value
-                    .inferType(builder)
-                    .unbox(builder.context())
-                    .toType(builder.context()),
-                value.compileValue(builder)
-            );
+            if (builder.payloadOf(value.inferType(builder)) == null) {
+                return value.compileValue(builder);
+            }
+            var type = value.inferType(builder).unbox(builder.context());
+            if (type instanceof AstType.Array) {
+                throw new SpannedException(
+                    this.span(),
+                    new SpannedException.ErrorType.UnboxedArray(type)
+                );
+            }
+            var box = value.compileValue(builder);
+            if (!builder.holdsReferences(type)) {
+                return builder.loadValueFromRefCount(
+                    type.toType(builder.context()),
+                    box
+                );
+            }
+            // the copy shares the boxes the original holds, so it needs
+            // references of its own
+            var address = builder.loadObjPtrFromWrapper(box);
+            var copy = builder
+                .codeBuilder()
+                .load(type.toType(builder.context()), address);
+            builder.retainContents(address, type);
+            return builder.ownValue(copy, type);
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return value.inferType(builder).unbox(builder.context());
         }
     }
@@ -403,36 +491,10 @@ public sealed interface Expression {
                 baseType.unbox(builder.context()) instanceof AstType.Array _ &&
                 identifier.equals("length")
             ) {
-                var loadedFromOriginal = builder
-                    .codeBuilder()
-                    .load(Type.ptr(), baseValuePtr.compilePath(builder));
-                var objPtrFromWrapper = builder.loadObjPtrFromWrapper(
-                    loadedFromOriginal
-                );
-                var objectAsValue = builder
+                // a plain i64 read straight out of the array's box
+                return builder
                     .codeBuilder()
-                    .load(
-                        baseValuePtr
-                            .inferType(builder)
-                            .unbox(builder.context())
-                            .toType(builder.context()),
-                        objPtrFromWrapper
-                    );
-                return builder.wrapValueInRefCount(
-                    builder
-                        .codeBuilder()
-                        .extractValue(
-                            objectAsValue.typed(
-                                baseValuePtr
-                                    .inferType(builder)
-                                    .unbox(builder.context())
-                                    .toType(builder.context())
-                            ),
-                            0
-                        )
-                        .typed(Type.integer(64)),
-                    8
-                );
+                    .load(Type.integer(64), this.compilePath(builder));
             }
             if (baseType.unbox(builder.context()) instanceof AstType.Struct _) {
                 return builder
@@ -453,33 +515,35 @@ public sealed interface Expression {
 
         @Override
         public Value compileInnerPath(CodeGenerator builder) {
+            return this.pathFrom(builder, baseValuePtr.compilePath(builder));
+        }
+
+        @Override
+        public Value compileMutablePath(CodeGenerator builder) {
+            var baseSlot = baseValuePtr.compileMutablePath(builder);
+            builder.unshare(baseSlot, baseValuePtr.inferType(builder));
+            return this.pathFrom(builder, baseSlot);
+        }
+
+        /// @param baseSlot Where the box this field belongs to is stored
+        public Value pathFrom(CodeGenerator builder, Value baseSlot) {
             var baseType = baseValuePtr.inferType(builder);
-            if (baseType.unbox(builder.context()) instanceof AstType.Array) {
-                var loadedFromOriginal = builder
-                    .codeBuilder()
-                    .load(Type.ptr(), baseValuePtr.compilePath(builder));
-                var objPtrFromWrapper = builder.loadObjPtrFromWrapper(
-                    loadedFromOriginal
-                );
-                var objectAsValue = builder
-                    .codeBuilder()
-                    .load(
-                        baseValuePtr
-                            .inferType(builder)
-                            .unbox(builder.context())
-                            .toType(builder.context()),
-                        objPtrFromWrapper
-                    );
+            if (
+                baseType.unbox(builder.context()) instanceof
+                    AstType.Array array &&
+                identifier.equals("length")
+            ) {
                 return builder
                     .codeBuilder()
-                    .extractValue(
-                        objectAsValue.typed(
-                            baseValuePtr
-                                .inferType(builder)
-                                .unbox(builder.context())
-                                .toType(builder.context())
+                    .getElementPtr(
+                        array.toType(builder.context()),
+                        builder.loadObjPtrFromWrapper(
+                            builder
+                                .codeBuilder()
+                                .load(Type.ptr(), baseSlot)
                         ),
-                        0
+                        Constant.integer(0).typed(Type.integer(32)),
+                        Constant.integer(0).typed(Type.integer(32))
                     );
             }
             if (
@@ -493,10 +557,7 @@ public sealed interface Expression {
                         builder.loadObjPtrFromWrapper(
                             builder
                                 .codeBuilder()
-                                .load(
-                                    Type.ptr(),
-                                    baseValuePtr.compilePath(builder)
-                                )
+                                .load(Type.ptr(), baseSlot)
                         ),
                         Constant.integer(0).typed(Type.integer(32)),
                         Constant.integer(ptrOffset(builder)).typed(
@@ -514,14 +575,14 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             var baseType = baseValuePtr.inferType(builder);
 
             if (
                 baseType.unbox(builder.context()) instanceof AstType.Array _ &&
                 identifier.equals("length")
             ) {
-                return new AstType.Boxed(new AstType.Integer(64, this.span));
+                return new AstType.Integer(64, this.span);
             }
             if (
                 baseType.unbox(builder.context()) instanceof
@@ -603,40 +664,28 @@ public sealed interface Expression {
 
         @Override
         public Value compileInnerPath(CodeGenerator builder) {
+            return this.pathFrom(
+                builder,
+                baseArrayStackPtr.compilePath(builder)
+            );
+        }
+
+        @Override
+        public Value compileMutablePath(CodeGenerator builder) {
+            var baseSlot = baseArrayStackPtr.compileMutablePath(builder);
+            builder.unshare(baseSlot, baseArrayStackPtr.inferType(builder));
+            return this.pathFrom(builder, baseSlot);
+        }
+
+        /// @param baseSlot Where the box of the subscripted array is stored
+        public Value pathFrom(CodeGenerator builder, Value baseSlot) {
             var type = baseArrayStackPtr.inferType(builder);
-            if (
-                type.unbox(builder.context()) instanceof
-                    AstType.Array(AstType elementType, SpanData _)
-            ) {
-                var loadedFromOriginal = builder
-                    .codeBuilder()
-                    .load(Type.ptr(), baseArrayStackPtr.compilePath(builder));
-                var objPtrFromWrapper = builder.loadObjPtrFromWrapper(
-                    loadedFromOriginal
-                );
-                var objectAsValue = builder
-                    .codeBuilder()
-                    .load(
-                        baseArrayStackPtr
-                            .inferType(builder)
-                            .unbox(builder.context())
-                            .toType(builder.context()),
-                        objPtrFromWrapper
-                    );
-                var arrayPtrFromObjectValue = builder
-                    .codeBuilder()
-                    .extractValue(
-                        objectAsValue.typed(
-                            baseArrayStackPtr
-                                .inferType(builder)
-                                .unbox(builder.context())
-                                .toType(builder.context())
-                        ),
-                        1
-                    );
+            if (type.unbox(builder.context()) instanceof AstType.Array array) {
                 return builder.ptrToArrayElement(
-                    elementType.toType(builder.context()),
-                    arrayPtrFromObjectValue,
+                    array,
+                    builder.loadObjPtrFromWrapper(
+                        builder.codeBuilder().load(Type.ptr(), baseSlot)
+                    ),
                     subValue
                 );
             }
@@ -648,7 +697,7 @@ public sealed interface Expression {
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             var baseType = baseArrayStackPtr.inferType(builder);
             if (
                 baseType.unbox(builder.context()) instanceof
@@ -688,30 +737,86 @@ public sealed interface Expression {
         List<StructLiteral.Field> fields,
         SpanData span
     ) implements Expression {
-        public record Field(String name, AstType type, Expression value) {}
+        public record Field(String name, AstType type, Expression value)
+            implements Serializable {}
 
+        /// Only reached when the struct is used unboxed. It is still built
+        /// field by field in memory, which SROA turns back into registers.
         @Override
         public Value compileInnerValue(CodeGenerator builder) {
             var llvmStructType = this.inferType(builder).toType(
                 builder.context()
             );
-            Value structValue = Constant.undef();
+            var address = builder.slot(this, llvmStructType);
+            this.compileInto(builder, address);
+            return builder.ownValue(
+                builder.codeBuilder().load(llvmStructType, address),
+                this.inferType(builder)
+            );
+        }
+
+        /// Builds the struct at `address`.
+        public void compileInto(CodeGenerator builder, Value address) {
+            this.storeFields(
+                builder,
+                address,
+                this.compileFields(builder).iterator()
+            );
+        }
+
+        /// Computes and claims the value of every field, those of nested
+        /// literals included, in the order `storeFields` stores them.
+        public List<Value> compileFields(CodeGenerator builder) {
+            var values = new ArrayList<Value>();
+            for (var field : fields) {
+                if (field.value instanceof StructLiteral literal) {
+                    values.addAll(literal.compileFields(builder));
+                    continue;
+                }
+                var value = field.value.compileValue(builder);
+                builder.claim(value, field.type);
+                values.add(value);
+            }
+            return values;
+        }
+
+        /// Stores the values from `compileFields` straight to their places
+        /// at `address`, so no aggregate value is ever formed.
+        public void storeFields(
+            CodeGenerator builder,
+            Value address,
+            Iterator<Value> values
+        ) {
+            var llvmStructType = this.inferType(builder).toType(
+                builder.context()
+            );
             for (int i = 0; i < fields.size(); i++) {
-                var fieldValue = fields.get(i).value.compileValue(builder);
-                var fieldType = fields.get(i).type.toType(builder.context());
-                structValue = builder
+                var field = fields.get(i);
+                var fieldPtr = builder
+                    .codeBuilder()
+                    .getElementPtr(
+                        llvmStructType,
+                        address,
+                        Constant.integer(0).typed(Type.integer(32)),
+                        Constant.integer(i).typed(Type.integer(32))
+                    );
+                if (field.value instanceof StructLiteral literal) {
+                    literal.storeFields(builder, fieldPtr, values);
+                    continue;
+                }
+                builder
                     .codeBuilder()
-                    .insertValue(
-                        structValue.typed(llvmStructType),
-                        fieldValue.typed(fieldType),
-                        i
+                    .store(
+                        values
+                            .next()
+                            .typed(field.type.toType(builder.context())),
+                        fieldPtr
                     );
             }
-            return structValue;
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return new AstType.Struct(
                 this.fields.stream()
                     .map(x -> new Header.Parameter(x.name(), x.type()))
@@ -725,60 +830,47 @@ public sealed interface Expression {
         Expression {
         @Override
         public Value compileInnerValue(CodeGenerator builder) {
-            var llvmArrayType = this.inferType(builder).toType(
-                builder.context()
-            );
-            var llvmElementType = this.inferElementType(builder).toType(
-                builder.context()
+            throw new SpannedException(
+                this.span(),
+                new SpannedException.ErrorType.UnboxedArray(
+                    this.inferType(builder)
+                )
             );
-            var arrayObjectPtr = builder
-                .codeBuilder()
-                .callTyped(
-                    Identifier.global("malloc").typed(
-                        Type.function(Type.ptr(), List.of(Type.integer(64)))
-                    ),
-                    List.of(
-                        Constant.integer(fields.size() * 8L).typed(
-                            Type.integer(64)
-                        )
-                    )
-                );
+        }
 
+        /// Builds `box`, the box of this literal: its header, length and
+        /// elements share one allocation sized for exactly these elements.
+        public Value compileBoxed(CodeGenerator builder, Box box) {
+            this.typecheck(builder);
+            var elementType = this.inferElementType(builder);
+            var llvmElementType = elementType.toType(builder.context());
+            var wrapperPtr = builder.newBox(box);
+
+            var array = (AstType.Array) this.inferType(builder);
+            var payload = builder.loadObjPtrFromWrapper(wrapperPtr);
             int i = 0;
             for (var field : fields) {
+                var elementPtr = builder.ptrToArrayElement(
+                    array,
+                    payload,
+                    new Integer(i, field.span())
+                );
+                i++;
+                if (field instanceof StructLiteral literal) {
+                    literal.compileInto(builder, elementPtr);
+                    continue;
+                }
+                var fieldValue = field.compileValue(builder);
+                builder.claim(fieldValue, elementType);
                 builder
                     .codeBuilder()
-                    .store(
-                        field.compileValue(builder).typed(llvmElementType),
-                        builder.ptrToArrayElement(
-                            llvmElementType,
-                            arrayObjectPtr,
-                            new Integer(i, field.span())
-                        )
-                    );
-                i++;
+                    .store(fieldValue.typed(llvmElementType), elementPtr);
             }
-
-            return builder
-                .codeBuilder()
-                .insertValue(
-                    builder
-                        .codeBuilder()
-                        .insertValue(
-                            Constant.undef().typed(llvmArrayType),
-                            Constant.integer(fields.size()).typed(
-                                Type.integer(64)
-                            ),
-                            0
-                        )
-                        .typed(llvmArrayType),
-                    arrayObjectPtr.typed(Type.ptr()),
-                    1
-                );
+            return wrapperPtr;
         }
 
         @Override
-        public AstType inferType(CodeGenerator builder) {
+        public AstType inferInnerType(CodeGenerator builder) {
             return new AstType.Array(
                 this.inferElementType(builder),
                 this.span()
@@ -797,7 +889,11 @@ public sealed interface Expression {
         public void typecheck(CodeGenerator builder) {
             var elementType = this.inferElementType(builder);
             for (var entry : this.fields) {
-                if (!(entry.inferType(builder).typeEquals(elementType))) {
+                if (
+                    !(entry
+                            .inferType(builder)
+                            .typeEquals(elementType, builder.context()))
+                ) {
                     throw new SpannedException(
                         entry.span(),
                         new SpannedException.ErrorType.WrongType(
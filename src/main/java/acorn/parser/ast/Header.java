@@ -1,21 +1,25 @@
 package acorn.parser.ast;
 
 import acorn.parser.CodeGenerator;
+import acorn.parser.EscapeAnalysis;
+import acorn.parser.StackSlots;
 import acorn.parser.ctx.FunctionRecord;
 import acorn.parser.ctx.GlobalContext;
 import acorn.parser.ctx.StackMap;
 import acorn.token.SpanData;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.stream.Collectors;
 import llvm4j.module.Module;
 import llvm4j.module.value.Identifier;
 
-public sealed interface Header {
+public sealed interface Header extends Serializable {
     void preprocess(GlobalContext context, String namespace);
     void emit(Module.Builder builder, GlobalContext context, String namespace);
 
-    record Parameter(String name, AstType type) {}
+    record Parameter(String name, AstType type) implements Serializable {}
 
     record Namespace(
         String name,
@@ -92,13 +96,19 @@ public sealed interface Header {
                     this.returnType.typeName()
             );
 
+            boolean exported = false;
+
             for (var annotation : this.annotations) {
                 switch (annotation.name()) {
                     case "varargs" -> varargs = true;
-                    case "mangle_as" -> mangling =
-                        ((Expression.StringValue) annotation
+                    case "mangle_as" -> {
+                        mangling = ((Expression.StringValue) annotation
                                 .values()
                                 .getFirst()).value();
+                        // a chosen symbol name is there to be linked against
+                        exported = true;
+                    }
+                    case "export" -> exported = true;
                 }
             }
             boolean finalVarargs = varargs;
@@ -107,10 +117,33 @@ public sealed interface Header {
                 .functions()
                 .put(
                     namespace + this.name,
-                    new FunctionRecord(mangling, finalVarargs, this, this.span)
+                    new FunctionRecord(
+                        mangling,
+                        finalVarargs,
+                        exported,
+                        this,
+                        this.span
+                    )
                 );
         }
 
+        /// Emits only a declaration of this function, for modules that call
+        /// it without defining it.
+        public void declare(
+            Module.Builder builder,
+            GlobalContext context,
+            String namespace
+        ) {
+            new Function(
+                this.name,
+                this.returnType,
+                this.parameters,
+                null,
+                this.annotations,
+                this.span
+            ).emit(builder, context, namespace);
+        }
+
         @Override
         public void emit(
             Module.Builder builder,
@@ -146,28 +179,44 @@ public sealed interface Header {
                             builder,
                             fb,
                             bb,
-                            sm
+                            sm,
+                            new IdentityHashMap<>(),
+                            new ArrayList<>(),
+                            EscapeAnalysis.analyze(this),
+                            new IdentityHashMap<>()
                         );
 
                         sm.pushFrame();
 
+                        // every slot goes ahead of the code that fills it;
+                        // see `StackSlots`
                         for (var parameter : this.parameters) {
-                            var paramSlot = bb.alloca(
-                                parameter.type().toType(context)
+                            sm.storeVariable(
+                                parameter.name(),
+                                bb.alloca(parameter.type().toType(context)),
+                                parameter.type(),
+                                this.span,
+                                context
                             );
+                        }
+                        StackSlots.hoist(cg, this.statements);
+
+                        for (var parameter : this.parameters) {
                             var paramValue = Identifier.local(parameter.name());
                             bb.store(
                                 paramValue.typed(
                                     parameter.type().toType(context)
                                 ),
-                                paramSlot
-                            );
-                            sm.storeVariable(
-                                parameter.name(),
-                                paramSlot,
-                                parameter.type(),
-                                this.span
+                                sm
+                                    .getLocalVariable(
+                                        parameter.name(),
+                                        this.span
+                                    )
+                                    .stackSlot()
                             );
+                            // parameters are borrowed from the caller, so the
+                            // callee takes its own reference to them
+                            cg.retainValue(paramValue, parameter.type());
                         }
                         sm.pushFrame();
                         for (var statement : this.statements) {
@@ -176,8 +225,18 @@ public sealed interface Header {
                                 context.functions().get(namespace + this.name)
                             );
                         }
-                        sm.popFrame();
-                        sm.popFrame();
+                        // a trailing return has already released everything
+                        if (
+                            this.statements.isEmpty() ||
+                            !(this.statements.getLast() instanceof
+                                    Statement.Ret)
+                        ) {
+                            cg.releaseFrame(sm.popFrame());
+                            cg.releaseFrame(sm.popFrame());
+                        } else {
+                            sm.popFrame();
+                            sm.popFrame();
+                        }
                         return bb;
                     });
                 }
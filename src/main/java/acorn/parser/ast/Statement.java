@@ -4,18 +4,22 @@ import acorn.parser.CodeGenerator;
 import acorn.parser.ctx.FunctionRecord;
 import acorn.token.SpanData;
 import acorn.token.SpannedException;
+import java.io.Serializable;
 import java.util.List;
+import llvm4j.module.type.Type;
+import llvm4j.module.value.Value;
 
-public sealed interface Statement {
+public sealed interface Statement extends Serializable {
     default void compile(CodeGenerator gen, FunctionRecord function) {
-        gen
-            .codeBuilder()
-            .comment("ENTER STATEMENT " + this.toString().replace("\n", "[n]"));
+        gen.comment(() ->
+            "ENTER STATEMENT " + this.toString().replace("\n", "[n]")
+        );
         this.typeCheck(gen, function);
         this.compileInner(gen, function);
-        gen
-            .codeBuilder()
-            .comment("EXIT STATEMENT " + this.toString().replace("\n", "[n]"));
+        gen.releaseTemporaries();
+        gen.comment(() ->
+            "EXIT STATEMENT " + this.toString().replace("\n", "[n]")
+        );
     }
 
     void compileInner(CodeGenerator gen, FunctionRecord function);
@@ -25,16 +29,18 @@ public sealed interface Statement {
         @Override
         public void compileInner(CodeGenerator gen, FunctionRecord function) {
             if (expr == null) {
+                gen.releaseTemporaries();
+                gen.releaseFrames();
                 gen.codeBuilder().ret();
                 return;
             }
+            var value = expr.compileValue(gen);
+            gen.claim(value, expr.inferType(gen));
+            gen.releaseTemporaries();
+            gen.releaseFrames();
             gen
                 .codeBuilder()
-                .ret(
-                    expr
-                        .compileValue(gen)
-                        .typed(expr.inferType(gen).toType(gen.context()))
-                );
+                .ret(value.typed(expr.inferType(gen).toType(gen.context())));
         }
 
         @Override
@@ -45,7 +51,8 @@ public sealed interface Statement {
                             .function()
                             .returnType()
                             .typeEquals(
-                                new AstType.Void(function.function().span())
+                                new AstType.Void(function.function().span()),
+                                gen.context()
                             ))
                 ) {
                     throw new SpannedException(
@@ -61,7 +68,7 @@ public sealed interface Statement {
                     !(function
                             .function()
                             .returnType()
-                            .typeEquals(expr.inferType(gen)))
+                            .typeEquals(expr.inferType(gen), gen.context()))
                 ) {
                     throw new SpannedException(
                         this.expr.span(),
@@ -78,37 +85,154 @@ public sealed interface Statement {
     record StoreValue(Expression path, Expression expr) implements Statement {
         @Override
         public void compileInner(CodeGenerator gen, FunctionRecord function) {
+            var declares = false;
             if (
                 path instanceof
                     Expression.Variable(String variableName, SpanData spanData)
             ) {
                 if (!gen.stackMap().hasLocalVariable(variableName)) {
+                    declares = true;
                     gen
                         .stackMap()
                         .storeVariable(
                             variableName,
-                            gen
-                                .codeBuilder()
-                                .alloca(
-                                    expr.inferType(gen).toType(gen.context())
-                                ),
+                            gen.slot(
+                                this,
+                                expr.inferType(gen).toType(gen.context())
+                            ),
                             expr.inferType(gen),
-                            spanData
+                            spanData,
+                            gen.context()
                         );
                 }
             }
+            var type = expr.inferType(gen);
+            var stackVariable = this.storesStackVariable(gen);
+            if (this.reuses(gen, declares)) {
+                this.compileReuse(gen, (Expression.Box) expr);
+                return;
+            }
+            var value = expr.compileValue(gen);
+            if (!stackVariable) {
+                gen.claim(value, type);
+            }
+            var target = path.compileMutablePath(gen);
+
+            // the value being overwritten loses its owner
+            Value previous = null;
+            if (!declares && gen.holdsReferences(type)) {
+                previous = gen
+                    .codeBuilder()
+                    .load(type.toType(gen.context()), target);
+            }
             gen
                 .codeBuilder()
-                .store(
-                    expr
-                        .compileValue(gen)
-                        .typed(expr.inferType(gen).toType(gen.context())),
-                    path.compilePath(gen)
-                );
+                .store(value.typed(type.toType(gen.context())), target);
+            if (previous == null) {
+                return;
+            }
+            if (gen.payloadOf(type) == null) {
+                gen.releaseValue(previous, type);
+            } else if (
+                path instanceof Expression.Variable(String name, SpanData _)
+            ) {
+                gen.releaseVariable(name, previous, gen.payloadOf(type));
+            } else {
+                gen.release(previous, gen.payloadOf(type));
+            }
+        }
+
+        boolean storesStackVariable(CodeGenerator gen) {
+            return (
+                path instanceof Expression.Variable(String name, SpanData _) &&
+                gen.escapes().onStack(name)
+            );
+        }
+
+        /// Whether this store recycles the box it overwrites; see
+        /// `compileReuse`. Array boxes are sized by their length, so they are
+        /// never reused, and neither is a box whose payload type differs from
+        /// the one the path holds, whose glue and size would not fit.
+        public boolean reuses(CodeGenerator gen, boolean declares) {
+            return (
+                !declares &&
+                !this.storesStackVariable(gen) &&
+                expr instanceof Expression.Box box &&
+                !(box.value() instanceof Expression.ArrayLiteral) &&
+                gen.allocatesOnHeap(box) &&
+                this.samePayload(gen)
+            );
+        }
+
+        boolean samePayload(CodeGenerator gen) {
+            var held = gen.payloadOf(path.inferType(gen));
+            var stored = gen.payloadOf(expr.inferType(gen));
+            if (held == null || stored == null) {
+                return false;
+            }
+            var types = gen.context().types();
+            return (
+                types.expand(held, gen.context()) ==
+                types.expand(stored, gen.context())
+            );
+        }
+
+        /// Replaces a box with a new box of the same type, recycling the old
+        /// allocation when nothing else refers to it. The new value is
+        /// computed first, since it may still read the old one; a struct
+        /// literal has its fields computed first and is then built right in
+        /// the reused box. The glue comes from the type the path holds, since
+        /// that is what the old box contains.
+        void compileReuse(CodeGenerator gen, Expression.Box box) {
+            var payload = gen.payloadOf(path.inferType(gen));
+            List<Value> fields = null;
+            Value value = null;
+            if (box.value() instanceof Expression.StructLiteral literal) {
+                fields = literal.compileFields(gen);
+            } else {
+                value = box.value().compileValue(gen);
+                gen.claim(value, payload);
+            }
+            var target = path.compileMutablePath(gen);
+            var reused = gen.reuseBox(
+                gen.codeBuilder().load(Type.ptr(), target),
+                payload
+            );
+            var contents = gen.loadObjPtrFromWrapper(reused);
+            if (box.value() instanceof Expression.StructLiteral literal) {
+                literal.storeFields(gen, contents, fields.iterator());
+            } else {
+                gen
+                    .codeBuilder()
+                    .store(
+                        value.typed(payload.toType(gen.context())),
+                        contents
+                    );
+            }
+            gen.codeBuilder().store(reused.typed(Type.ptr()), target);
         }
 
         @Override
-        public void typeCheck(CodeGenerator gen, FunctionRecord function) {}
+        public void typeCheck(CodeGenerator gen, FunctionRecord function) {
+            this.expr.typecheck(gen);
+            if (
+                path instanceof Expression.Variable(String name, SpanData _) &&
+                !gen.stackMap().hasLocalVariable(name)
+            ) {
+                return;
+            }
+            var expected = path.inferType(gen);
+            var found = expr.inferType(gen);
+            if (!expected.typeEquals(found, gen.context())) {
+                throw new SpannedException(
+                    this.expr.span(),
+                    new SpannedException.ErrorType.WrongType(
+                        List.of(expected),
+                        found
+                    )
+                );
+            }
+        }
     }
 
     record Dropping(Expression expr) implements Statement {
@@ -4,9 +4,13 @@ import acorn.parser.ast.AstType;
 import acorn.parser.ast.Header;
 import acorn.token.SpanData;
 
+/// @param exported Whether the function keeps external linkage in the
+/// final binary. Functions named with `@mangle_as` or marked `@export` are
+/// exported; every other function is internalized when the program is linked.
 public record FunctionRecord(
     String mangling,
     boolean varargs,
+    boolean exported,
     Header.Function function,
     SpanData span
 ) {
@@ -1,14 +1,44 @@
 package acorn.parser.ctx;
 
+import acorn.parser.Glue;
 import acorn.parser.ast.AstType;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import llvm4j.module.Module;
 
 public record GlobalContext(
     Map<String, FunctionRecord> functions,
-    Map<String, AstType> typeAliases
+    Map<String, AstType> typeAliases,
+    TypeTable types,
+    boolean traceComments,
+    Map<Module.Builder, Glue> glues
 ) {
-    public static GlobalContext create() {
-        return new GlobalContext(new HashMap<>(), new HashMap<>());
+    /// @param traceComments Whether to annotate the emitted IR with the
+    /// expressions and statements each instruction was compiled from
+    public static GlobalContext create(boolean traceComments) {
+        return new GlobalContext(
+            new HashMap<>(),
+            new HashMap<>(),
+            new TypeTable(),
+            traceComments,
+            new IdentityHashMap<>()
+        );
+    }
+
+    /// Starts the glue of `module`, which holds the code of the source file
+    /// hashed as `unitHash`. Every module gets its own copy, named after its
+    /// file, so fragments never define the same symbol twice.
+    public Glue glue(Module.Builder module, String unitHash) {
+        return this.glues.computeIfAbsent(module, _ -> new Glue(unitHash));
+    }
+
+    /// The glue emitted into `module`, which must have been started.
+    public Glue glue(Module.Builder module) {
+        var glue = this.glues.get(module);
+        if (glue == null) {
+            throw new IllegalStateException("module has no glue");
+        }
+        return glue;
     }
 }
@@ -25,11 +25,12 @@ public record StackMap(List<Frame> stackFrames) {
         String name,
         Value allocaPtr,
         AstType varType,
-        SpanData span
+        SpanData span,
+        GlobalContext context
     ) {
         if (this.hasLocalVariable(name)) {
             var previousType = this.getLocalVariable(name, span);
-            if (!previousType.type().typeEquals(varType)) {
+            if (!previousType.type().typeEquals(varType, context)) {
                 throw new SpannedException(
                     span,
                     new SpannedException.ErrorType.WrongType(
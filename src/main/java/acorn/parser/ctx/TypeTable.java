@@ -0,0 +1,203 @@
+package acorn.parser.ctx;
+
+import acorn.parser.ast.AstType;
+import acorn.parser.ast.Header;
+import acorn.token.SpannedException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/// Hash-consed table of types. Every structurally distinct type has exactly
+/// one canonical instance, so two types are equal exactly when their canonical
+/// instances are the same reference.
+///
+/// Aliases are resolved while interning: an `Unresolved` name stands for the
+/// unboxed form of its alias, and the parser wraps it in `Boxed` where needed.
+public class TypeTable {
+
+    /// The shape of a type with canonical children, compared by reference.
+    static final class Shape {
+
+        final Class<?> kind;
+        final Object tag;
+        final AstType[] children;
+        final int hash;
+
+        Shape(Class<?> kind, Object tag, AstType[] children) {
+            this.kind = kind;
+            this.tag = tag;
+            this.children = children;
+            var h = kind.hashCode() * 31 + Objects.hashCode(tag);
+            for (var child : children) {
+                h = h * 31 + System.identityHashCode(child);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape other)) {
+                return false;
+            }
+            if (
+                this.hash != other.hash ||
+                this.kind != other.kind ||
+                !Objects.equals(this.tag, other.tag) ||
+                this.children.length != other.children.length
+            ) {
+                return false;
+            }
+            for (int i = 0; i < this.children.length; i++) {
+                if (this.children[i] != other.children[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    Map<Shape, AstType> shapes = new HashMap<>();
+    Map<AstType, AstType> interned = new IdentityHashMap<>();
+    Map<AstType, AstType> unboxed = new IdentityHashMap<>();
+    Set<String> resolving = new HashSet<>();
+
+    public AstType intern(AstType type, GlobalContext context) {
+        var known = this.interned.get(type);
+        if (known != null) {
+            return known;
+        }
+
+        var canonical = switch (type) {
+            case AstType.Unresolved unresolved -> this.resolve(
+                unresolved,
+                context
+            );
+            case AstType.Boxed boxed -> {
+                var inner = this.intern(boxed.type(), context);
+                yield this.share(new AstType.Boxed(inner), null, inner);
+            }
+            case AstType.Integer integer -> this.share(integer, integer.bits());
+            case AstType.Void v -> this.share(v, null);
+            case AstType.LibCPointer pointer -> this.share(pointer, null);
+            case AstType.Any any -> this.share(any, null);
+            case AstType.Function function -> {
+                var children = new AstType[function.parameters().size() + 1];
+                children[0] = this.intern(function.returned(), context);
+                for (int i = 0; i < function.parameters().size(); i++) {
+                    children[i + 1] = this.intern(
+                        function.parameters().get(i),
+                        context
+                    );
+                }
+                yield this.share(
+                    new AstType.Function(
+                        children[0],
+                        List.of(children).subList(1, children.length),
+                        function.varargs(),
+                        function.span()
+                    ),
+                    function.varargs(),
+                    children
+                );
+            }
+            case AstType.Struct struct -> {
+                var children = new AstType[struct.parameters().size()];
+                var fields = new Header.Parameter[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    var field = struct.parameters().get(i);
+                    children[i] = this.intern(field.type(), context);
+                    fields[i] = new Header.Parameter(field.name(), children[i]);
+                }
+                yield this.share(
+                    new AstType.Struct(List.of(fields), struct.span()),
+                    Arrays.stream(fields).map(Header.Parameter::name).toList(),
+                    children
+                );
+            }
+            case AstType.Array array -> {
+                var element = this.intern(array.param(), context);
+                yield this.share(
+                    new AstType.Array(element, array.span()),
+                    null,
+                    element
+                );
+            }
+        };
+        this.interned.put(type, canonical);
+        return canonical;
+    }
+
+    /// Strips every layer of boxing from `type`, resolving aliases on the way.
+    /// The result is expanded, so it is never the nominal self-reference of a
+    /// recursive alias.
+    public AstType unbox(AstType type, GlobalContext context) {
+        var canonical = this.expand(type, context);
+        var known = this.unboxed.get(canonical);
+        if (known != null) {
+            return known;
+        }
+        var result = canonical instanceof AstType.Boxed(AstType inner)
+            ? this.unbox(inner, context)
+            : canonical;
+        this.unboxed.put(canonical, result);
+        return result;
+    }
+
+    /// Like `intern`, but also expands the nominal self-reference a recursive
+    /// alias leaves behind into the type the alias stands for.
+    public AstType expand(AstType type, GlobalContext context) {
+        var canonical = this.intern(type, context);
+        if (canonical instanceof AstType.Unresolved unresolved) {
+            return this.resolve(unresolved, context);
+        }
+        return canonical;
+    }
+
+    public boolean equal(AstType a, AstType b, GlobalContext context) {
+        return this.intern(a, context) == this.intern(b, context);
+    }
+
+    AstType resolve(AstType.Unresolved unresolved, GlobalContext context) {
+        var alias = context.typeAliases().get(unresolved.name());
+        if (alias == null) {
+            throw new SpannedException(
+                unresolved.span(),
+                new SpannedException.ErrorType.VariableDoesNotExist(
+                    unresolved.name()
+                )
+            );
+        }
+        // a recursive alias stays nominal where it refers to itself
+        if (!this.resolving.add(unresolved.name())) {
+            return this.share(unresolved, unresolved.name());
+        }
+        try {
+            var target = this.intern(alias, context);
+            return target instanceof AstType.Boxed(AstType inner)
+                ? inner
+                : target;
+        } finally {
+            this.resolving.remove(unresolved.name());
+        }
+    }
+
+    AstType share(AstType candidate, Object tag, AstType... children) {
+        var shape = new Shape(candidate.getClass(), tag, children);
+        var canonical = this.shapes.putIfAbsent(shape, candidate);
+        if (canonical == null) {
+            canonical = candidate;
+        }
+        this.interned.put(canonical, canonical);
+        return canonical;
+    }
+}
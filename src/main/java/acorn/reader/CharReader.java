@@ -0,0 +1,64 @@
+package acorn.reader;
+
+/// Reads characters out of a source file. Unlike a boxed reader, every access
+/// returns a primitive `char` and end-of-input is reported through explicit
+/// bounds checks rather than exceptions.
+public class CharReader {
+
+    /// Returned by `peek()` and `next()` once the reader has run
+    /// past the end of its input.
+    public static final char EOF = '\0';
+
+    CharSequence value;
+    int index = 0;
+    int length;
+
+    public static CharReader create(CharSequence value) {
+        var r = new CharReader();
+        r.value = value;
+        r.length = value.length();
+        return r;
+    }
+
+    public int index() {
+        return this.index;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public boolean hasNext() {
+        return this.index < this.length;
+    }
+
+    public CharSequence value() {
+        return this.value;
+    }
+
+    public char next() {
+        if (this.index >= this.length) {
+            return EOF;
+        }
+        return this.value.charAt(this.index++);
+    }
+
+    public char peek() {
+        if (this.index >= this.length) {
+            return EOF;
+        }
+        return this.value.charAt(this.index);
+    }
+
+    public char peek(int ahead) {
+        if (this.index + ahead >= this.length) {
+            return EOF;
+        }
+        return this.value.charAt(this.index + ahead);
+    }
+
+    /// Returns the text between `start` and the current index.
+    public String slice(int start) {
+        return this.value.subSequence(start, this.index).toString();
+    }
+}
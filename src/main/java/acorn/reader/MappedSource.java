@@ -0,0 +1,56 @@
+package acorn.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// A memory-mapped UTF-8 source file viewed as a `CharSequence`.
+///
+/// `charAt` returns raw bytes, which is all the tokenizer needs since every
+/// Acorn delimiter is ASCII. Text is only decoded when `toString` is called,
+/// which the tokenizer does on the subsequence of a single token.
+public class MappedSource implements CharSequence {
+
+    ByteBuffer bytes;
+
+    public static MappedSource map(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return MappedSource.wrap(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+            );
+        }
+    }
+
+    public static MappedSource wrap(ByteBuffer bytes) {
+        var s = new MappedSource();
+        s.bytes = bytes;
+        return s;
+    }
+
+    public ByteBuffer bytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public int length() {
+        return this.bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (this.bytes.get(index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return MappedSource.wrap(this.bytes.slice(start, end - start));
+    }
+
+    @Override
+    public String toString() {
+        return StandardCharsets.UTF_8.decode(this.bytes.duplicate()).toString();
+    }
+}
@@ -0,0 +1,78 @@
+package acorn.reader;
+
+import acorn.token.SpannedException;
+import acorn.token.Token;
+import acorn.token.TokenBuffer;
+import java.util.List;
+
+/// Reads tokens for the `Parser`. Running out of tokens or
+/// failing an `expect` is reported as a `SpannedException`.
+///
+/// Tokens are materialized out of the `TokenBuffer` on demand; the token at
+/// the current index is cached so repeated peeks do not rebuild it.
+public class TokenReader {
+
+    TokenBuffer tokens;
+    int index = 0;
+
+    int cachedIndex = -1;
+    Token cached;
+
+    public static TokenReader create(TokenBuffer tokens) {
+        var r = new TokenReader();
+        r.tokens = tokens;
+        return r;
+    }
+
+    public int index() {
+        return this.index;
+    }
+
+    public int length() {
+        return this.tokens.size();
+    }
+
+    public boolean hasNext() {
+        return this.index < this.tokens.size();
+    }
+
+    public Token next() {
+        var token = this.peek();
+        this.index++;
+        return token;
+    }
+
+    public Token peek() {
+        return this.peek(0);
+    }
+
+    public Token peek(int ahead) {
+        var target = this.index + ahead;
+        if (target >= this.tokens.size()) {
+            throw new SpannedException(
+                this.tokens.span(this.tokens.size() - 1),
+                new SpannedException.ErrorType.UnexpectedEOF()
+            );
+        }
+        if (target != this.cachedIndex) {
+            this.cached = this.tokens.get(target);
+            this.cachedIndex = target;
+        }
+        return this.cached;
+    }
+
+    public <T extends Token> T expect(Class<T> clazz) {
+        var token = this.peek();
+        if (!clazz.isInstance(token)) {
+            throw new SpannedException(
+                token.span(),
+                new SpannedException.ErrorType.UnexpectedToken(
+                    List.of(clazz),
+                    token.getClass()
+                )
+            );
+        }
+        this.index++;
+        return clazz.cast(token);
+    }
+}
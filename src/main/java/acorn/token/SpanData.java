@@ -1,10 +1,39 @@
 package acorn.token;
 
-import java.util.HashMap;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public record SpanData(ColumnAndRow location, String fileName) {
-    public static Map<String, String> FILE_MAPS = new HashMap<>();
+/// A position in a source file. Only the file name and character offset are
+/// kept; the column and row are resolved from the file's line table when a
+/// diagnostic actually needs them.
+public record SpanData(String fileName, int offset) implements Serializable {
+    /// Offsets at which each line of a file starts, keyed by file name.
+    public static Map<String, int[]> FILE_MAPS = new ConcurrentHashMap<>();
 
     public record ColumnAndRow(int column, int row) {}
+
+    public static void indexLines(String fileName, CharSequence source) {
+        var lineStarts = new int[16];
+        var lines = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                if (lines == lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lines * 2);
+                }
+                lineStarts[lines++] = i + 1;
+            }
+        }
+        FILE_MAPS.put(fileName, Arrays.copyOf(lineStarts, lines));
+    }
+
+    public ColumnAndRow location() {
+        var lineStarts = FILE_MAPS.get(this.fileName);
+        var row = Arrays.binarySearch(lineStarts, this.offset);
+        if (row < 0) {
+            row = -row - 2;
+        }
+        return new ColumnAndRow(this.offset - lineStarts[row], row);
+    }
 }
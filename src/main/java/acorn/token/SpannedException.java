@@ -96,6 +96,13 @@ public class SpannedException extends RuntimeException {
             }
         }
 
+        record UnboxedArray(AstType type) implements ErrorType {
+            @Override
+            public String message() {
+                return "Arrays like `" + type + "` can only be used boxed.";
+            }
+        }
+
         record VariableDoesNotExist(String fieldName) implements ErrorType {
             @Override
             public String message() {
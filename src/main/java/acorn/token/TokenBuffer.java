@@ -0,0 +1,183 @@
+package acorn.token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Packed storage for tokens. Each token is a kind, a start offset, a length
+/// and a file id held in parallel primitive arrays; identifiers and literal
+/// values live in interned side tables. `Token` records are only
+/// materialized when the parser asks for them, and their spans only resolve a
+/// column and row when a diagnostic is printed.
+public class TokenBuffer {
+
+    public enum Kind {
+        IDENTIFIER,
+        INTEGER,
+        FLOATING,
+        C_STRING,
+        STRING,
+        NAMESPACE_KEYWORD,
+        FN_KEYWORD,
+        ARRAY_KEYWORD,
+        TYPE_KEYWORD,
+        RETURN_KEYWORD,
+        STRUCT_KEYWORD,
+        BOX_KEYWORD,
+        UNBOX_KEYWORD,
+        RIGHT_ARROW,
+        EQUALS,
+        AT,
+        PERIOD,
+        COMMA,
+        OPEN_BRACE,
+        CLOSE_BRACE,
+        OPEN_BRACKET,
+        CLOSE_BRACKET,
+        OPEN_PAREN,
+        CLOSE_PAREN,
+        PLUS,
+        MINUS,
+        STAR,
+        SLASH,
+        COLON;
+
+        static final Kind[] VALUES = values();
+    }
+
+    byte[] kinds = new byte[256];
+    int[] starts = new int[256];
+    int[] lengths = new int[256];
+    int[] fileIds = new int[256];
+    int[] values = new int[256];
+    int size = 0;
+
+    List<String> files = new ArrayList<>();
+
+    List<String> strings = new ArrayList<>();
+    Map<String, Integer> stringIds = new HashMap<>();
+
+    long[] numbers = new long[16];
+    int numberCount = 0;
+
+    public int size() {
+        return this.size;
+    }
+
+    public int addFile(String fileName) {
+        this.files.add(fileName);
+        return this.files.size() - 1;
+    }
+
+    public void add(Kind kind, int fileId, int start, int length) {
+        this.add(kind, fileId, start, length, -1);
+    }
+
+    public void addString(
+        Kind kind,
+        int fileId,
+        int start,
+        int length,
+        String value
+    ) {
+        var id = this.stringIds.get(value);
+        if (id == null) {
+            id = this.strings.size();
+            this.strings.add(value);
+            this.stringIds.put(value, id);
+        }
+        this.add(kind, fileId, start, length, id);
+    }
+
+    public void addNumber(
+        Kind kind,
+        int fileId,
+        int start,
+        int length,
+        long bits
+    ) {
+        if (this.numberCount == this.numbers.length) {
+            this.numbers = Arrays.copyOf(this.numbers, this.numberCount * 2);
+        }
+        this.numbers[this.numberCount] = bits;
+        this.add(kind, fileId, start, length, this.numberCount++);
+    }
+
+    void add(Kind kind, int fileId, int start, int length, int value) {
+        if (this.size == this.kinds.length) {
+            var capacity = this.size * 2;
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.fileIds = Arrays.copyOf(this.fileIds, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        this.kinds[this.size] = (byte) kind.ordinal();
+        this.starts[this.size] = start;
+        this.lengths[this.size] = length;
+        this.fileIds[this.size] = fileId;
+        this.values[this.size] = value;
+        this.size++;
+    }
+
+    public Kind kind(int index) {
+        return Kind.VALUES[this.kinds[index]];
+    }
+
+    /// Spans point just past the end of their token, which is where the
+    /// caret of a diagnostic is drawn.
+    public SpanData span(int index) {
+        return new SpanData(
+            this.files.get(this.fileIds[index]),
+            this.starts[index] + this.lengths[index]
+        );
+    }
+
+    public Token get(int index) {
+        var span = this.span(index);
+        return switch (this.kind(index)) {
+            case IDENTIFIER -> new Token.Identifier(this.string(index), span);
+            case INTEGER -> new Token.Integer(this.number(index), span);
+            case FLOATING -> new Token.Floating(
+                Double.longBitsToDouble(this.number(index)),
+                span
+            );
+            case C_STRING -> new Token.CString(this.string(index), span);
+            case STRING -> new Token.String(this.string(index), span);
+            case NAMESPACE_KEYWORD -> new Token.NamespaceKeyword(span);
+            case FN_KEYWORD -> new Token.FnKeyword(span);
+            case ARRAY_KEYWORD -> new Token.ArrayKeyword(span);
+            case TYPE_KEYWORD -> new Token.TypeKeyword(span);
+            case RETURN_KEYWORD -> new Token.ReturnKeyword(span);
+            case STRUCT_KEYWORD -> new Token.StructKeyword(span);
+            case BOX_KEYWORD -> new Token.BoxKeyword(span);
+            case UNBOX_KEYWORD -> new Token.UnboxKeyword(span);
+            case RIGHT_ARROW -> new Token.RightArrow(span);
+            case EQUALS -> new Token.Equals(span);
+            case AT -> new Token.At(span);
+            case PERIOD -> new Token.Period(span);
+            case COMMA -> new Token.Comma(span);
+            case OPEN_BRACE -> new Token.OpenBrace(span);
+            case CLOSE_BRACE -> new Token.CloseBrace(span);
+            case OPEN_BRACKET -> new Token.OpenBracket(span);
+            case CLOSE_BRACKET -> new Token.CloseBracket(span);
+            case OPEN_PAREN -> new Token.OpenParen(span);
+            case CLOSE_PAREN -> new Token.CloseParen(span);
+            case PLUS -> new Token.Plus(span);
+            case MINUS -> new Token.Minus(span);
+            case STAR -> new Token.Star(span);
+            case SLASH -> new Token.Slash(span);
+            case COLON -> new Token.Colon(span);
+        };
+    }
+
+    String string(int index) {
+        return this.strings.get(this.values[index]);
+    }
+
+    long number(int index) {
+        return this.numbers[this.values[index]];
+    }
+}
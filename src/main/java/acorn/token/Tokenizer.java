@@ -1,38 +1,52 @@
 package acorn.token;
 
-import acorn.reader.Reader;
-import acorn.token.SpanData.ColumnAndRow;
+import acorn.reader.CharReader;
+import acorn.reader.MappedSource;
+import acorn.token.TokenBuffer.Kind;
 import acorn.ui.ErrorPrinter;
-import java.util.ArrayList;
-import java.util.List;
 
 public class Tokenizer {
 
-    Reader<String, Character> stringReader;
-    String fileName;
-    List<Token> tokens = new ArrayList<>();
+    CharReader stringReader;
+    TokenBuffer tokens;
+    int fileId;
 
-    public static Tokenizer create(String source, String fileName) {
-        ErrorPrinter.FILE_CONTENTS.put(fileName, source);
+    /// Set when lexing raw UTF-8 bytes, where any byte outside of ASCII
+    /// belongs to a multi-byte identifier character.
+    boolean utf8;
+
+    public static Tokenizer create(
+        CharSequence source,
+        String fileName,
+        TokenBuffer tokens
+    ) {
+        Tokenizer.registerSource(source, fileName);
         var t = new Tokenizer();
-        t.fileName = fileName;
-        t.stringReader = Reader.create(
-            source + "\n\n\n",
-            String::charAt,
-            String::length,
-            (_, _) -> {},
-            () -> {}
-        );
+        t.tokens = tokens;
+        t.fileId = tokens.addFile(fileName);
+        t.utf8 = source instanceof MappedSource;
+        t.stringReader = CharReader.create(source);
         return t;
     }
 
-    public List<Token> tokenize() {
+    /// Makes `source` available to diagnostics reported against `fileName`.
+    public static void registerSource(CharSequence source, String fileName) {
+        ErrorPrinter.FILE_CONTENTS.put(fileName, source);
+        SpanData.indexLines(fileName, source);
+    }
+
+    /// Drops every source registered so far. A long-lived process calls this
+    /// once a request is done, so the sources of past requests, mapped files
+    /// included, are not kept alive.
+    public static void forgetSources() {
+        ErrorPrinter.FILE_CONTENTS.clear();
+        SpanData.FILE_MAPS.clear();
+    }
+
+    public TokenBuffer tokenize() {
         while (stringReader.hasNext()) {
             try {
-                var token = tokenizeOnce();
-                if (token != null) {
-                    this.tokens.add(token);
-                }
+                tokenizeOnce();
             } catch (Exception ignored) {
                 break;
             }
@@ -40,131 +54,159 @@ public class Tokenizer {
         return this.tokens;
     }
 
-    public Token tokenizeOnce() {
+    public void tokenizeOnce() {
         if (!stringReader.hasNext()) {
-            return null;
+            return;
         }
 
         this.skipWhitespace();
+        var start = stringReader.index();
 
         if (stringReader.peek() == 'c' && stringReader.peek(1) == '"') {
             stringReader.next();
             stringReader.next();
 
-            var sb = new StringBuilder();
-            while (stringReader.peek() != '"') {
-                sb.append(stringReader.next());
+            var valueStart = stringReader.index();
+            while (stringReader.hasNext() && stringReader.peek() != '"') {
+                stringReader.next();
             }
+            var str = stringReader.slice(valueStart);
             stringReader.next();
 
-            return new Token.CString(sb.toString(), this.createSpanData());
+            this.addString(Kind.C_STRING, start, str);
+            return;
         }
 
         // tokenize identifiers
-        if (Character.isJavaIdentifierStart(stringReader.peek())) {
-            var sb = new StringBuilder();
-            while (Character.isJavaIdentifierPart(stringReader.peek())) {
-                sb.append(stringReader.next());
+        if (this.isIdentifierStart(stringReader.peek())) {
+            while (
+                stringReader.hasNext() &&
+                this.isIdentifierPart(stringReader.peek())
+            ) {
+                stringReader.next();
             }
-            var str = sb.toString();
-            return switch (str) {
-                case "fn" -> new Token.FnKeyword(this.createSpanData());
-                case "return" -> new Token.ReturnKeyword(this.createSpanData());
-                case "type" -> new Token.TypeKeyword(this.createSpanData());
-                case "box" -> new Token.BoxKeyword(this.createSpanData());
-                case "unbox" -> new Token.UnboxKeyword(this.createSpanData());
-                case "struct" -> new Token.StructKeyword(this.createSpanData());
-                case "namespace" -> new Token.NamespaceKeyword(
-                    this.createSpanData()
-                );
-                default -> new Token.Identifier(
-                    sb.toString(),
-                    this.createSpanData()
-                );
-            };
+            var str = stringReader.slice(start);
+            switch (str) {
+                case "fn" -> this.add(Kind.FN_KEYWORD, start);
+                case "return" -> this.add(Kind.RETURN_KEYWORD, start);
+                case "type" -> this.add(Kind.TYPE_KEYWORD, start);
+                case "box" -> this.add(Kind.BOX_KEYWORD, start);
+                case "unbox" -> this.add(Kind.UNBOX_KEYWORD, start);
+                case "struct" -> this.add(Kind.STRUCT_KEYWORD, start);
+                case "namespace" -> this.add(Kind.NAMESPACE_KEYWORD, start);
+                default -> this.addString(Kind.IDENTIFIER, start, str);
+            }
+            return;
         }
 
         // tokenize numbers
         if (Character.isDigit(stringReader.peek())) {
-            var sb = new StringBuilder();
             while (
                 Character.isDigit(stringReader.peek()) ||
                 stringReader.peek() == '.'
             ) {
-                sb.append(stringReader.next());
+                stringReader.next();
             }
-            var str = sb.toString();
+            var str = stringReader.slice(start);
             if (str.contains(".")) {
-                return new Token.Floating(
-                    Double.parseDouble(str),
-                    this.createSpanData()
+                this.addNumber(
+                    Kind.FLOATING,
+                    start,
+                    Double.doubleToRawLongBits(Double.parseDouble(str))
                 );
             } else {
-                return new Token.Integer(
-                    Integer.parseInt(str),
-                    this.createSpanData()
-                );
+                this.addNumber(Kind.INTEGER, start, Integer.parseInt(str));
             }
+            return;
         }
 
         if (stringReader.peek() == '"') {
-            var sb = new StringBuilder();
             stringReader.next();
-            while (stringReader.peek() != '"') {
-                sb.append(stringReader.next());
+            var valueStart = stringReader.index();
+            while (stringReader.hasNext() && stringReader.peek() != '"') {
+                stringReader.next();
             }
+            var str = stringReader.slice(valueStart);
             stringReader.next();
 
-            return new Token.String(sb.toString(), this.createSpanData());
+            this.addString(Kind.STRING, start, str);
+            return;
         }
 
         // parse misc symbols
-        return switch (stringReader.next()) {
-            case '{' -> new Token.OpenBrace(this.createSpanData());
-            case '}' -> new Token.CloseBrace(this.createSpanData());
-            case '(' -> new Token.OpenParen(this.createSpanData());
-            case ')' -> new Token.CloseParen(this.createSpanData());
-            case '[' -> new Token.OpenBracket(this.createSpanData());
-            case ']' -> new Token.CloseBracket(this.createSpanData());
-            case '+' -> new Token.Plus(this.createSpanData());
+        var kind = switch (stringReader.next()) {
+            case '{' -> Kind.OPEN_BRACE;
+            case '}' -> Kind.CLOSE_BRACE;
+            case '(' -> Kind.OPEN_PAREN;
+            case ')' -> Kind.CLOSE_PAREN;
+            case '[' -> Kind.OPEN_BRACKET;
+            case ']' -> Kind.CLOSE_BRACKET;
+            case '+' -> Kind.PLUS;
             case '-' -> switch (stringReader.peek()) {
-                case '>' -> new Token.RightArrow(this.createSpanData());
-                default -> new Token.Minus(this.createSpanData());
+                case '>' -> Kind.RIGHT_ARROW;
+                default -> Kind.MINUS;
             };
-            case '*' -> new Token.Star(this.createSpanData());
-            case '/' -> new Token.Slash(this.createSpanData());
-            case '@' -> new Token.At(this.createSpanData());
-            case ',' -> new Token.Comma(this.createSpanData());
-            case '=' -> new Token.Equals(this.createSpanData());
-            case '.' -> new Token.Period(this.createSpanData());
-            case ':' -> new Token.Colon(this.createSpanData());
+            case '*' -> Kind.STAR;
+            case '/' -> Kind.SLASH;
+            case '@' -> Kind.AT;
+            case ',' -> Kind.COMMA;
+            case '=' -> Kind.EQUALS;
+            case '.' -> Kind.PERIOD;
+            case ':' -> Kind.COLON;
             default -> null;
         };
+        if (kind != null) {
+            this.add(kind, start);
+        }
     }
 
     public void skipWhitespace() {
-        var ch = stringReader.peek();
-        while (ch != null && Character.isWhitespace(ch)) {
+        while (
+            stringReader.hasNext() &&
+            Character.isWhitespace(stringReader.peek())
+        ) {
             stringReader.next();
-            ch = stringReader.peek();
         }
     }
 
-    public SpanData createSpanData() {
-        return new SpanData(this.columnAndRow(), this.fileName);
+    boolean isIdentifierStart(char ch) {
+        return (
+            Character.isJavaIdentifierStart(ch) || (this.utf8 && ch >= 0x80)
+        );
     }
 
-    public ColumnAndRow columnAndRow() {
-        int column = 0;
-        int row = 0;
-        for (int i = 0; i < this.stringReader.index(); i++) {
-            column += 1;
-            if (this.stringReader.value().charAt(i) == '\n') {
-                column = 0;
-                row += 1;
-            }
-        }
+    boolean isIdentifierPart(char ch) {
+        return (
+            Character.isJavaIdentifierPart(ch) || (this.utf8 && ch >= 0x80)
+        );
+    }
 
-        return new ColumnAndRow(column, row);
+    void add(Kind kind, int start) {
+        this.tokens.add(
+            kind,
+            this.fileId,
+            start,
+            this.stringReader.index() - start
+        );
+    }
+
+    void addString(Kind kind, int start, String value) {
+        this.tokens.addString(
+            kind,
+            this.fileId,
+            start,
+            this.stringReader.index() - start,
+            value
+        );
+    }
+
+    void addNumber(Kind kind, int start, long bits) {
+        this.tokens.addNumber(
+            kind,
+            this.fileId,
+            start,
+            this.stringReader.index() - start,
+            bits
+        );
     }
 }
@@ -1,158 +1,646 @@
 package acorn.ui;
 
 import acorn.Main;
-import acorn.parser.Parser;
-import acorn.parser.ast.Header;
+import acorn.cache.BuildCache;
+import acorn.parser.EscapeAnalysis;
+import acorn.parser.ctx.FunctionRecord;
 import acorn.parser.ctx.GlobalContext;
+import acorn.reader.MappedSource;
 import acorn.token.SpannedException;
-import acorn.token.Token;
-import acorn.token.Tokenizer;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URISyntaxException;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import llvm4j.module.Module;
+import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
 @Command(name = "build", description = "Build the project")
-public class CLI implements Runnable {
+public class CLI implements Callable<Integer> {
 
     @Parameters(index = "0", defaultValue = "run")
     public Mode mode = Mode.build;
 
-    List<Header> headers;
-    Path outFile;
+    @Option(
+        names = "--mmap",
+        description = "Memory-map source files and lex their UTF-8 bytes directly"
+    )
+    public boolean mmap = false;
+
+    @Option(
+        names = "--emit",
+        defaultValue = "trace",
+        description = "IR emission: `trace` comments every expression with " +
+        "the source it was compiled from, `lean` emits no comments"
+    )
+    public Emission emission = Emission.trace;
+
+    @Option(
+        names = "--no-daemon",
+        description = "Compile in this process even if a daemon is running"
+    )
+    public boolean noDaemon = false;
+
+    @Option(
+        names = "--escape-report",
+        description = "Print how many heap allocations escape analysis " +
+        "removed from each function"
+    )
+    public boolean escapeReport = false;
+
+    @Option(
+        names = "--profile",
+        defaultValue = "debug",
+        converter = Profile.Parser.class,
+        description = "Build profile: `debug` (-O0 with debug info, the " +
+        "default), `release` (-O2) or `release-native` (-O3 for this " +
+        "machine's CPU, with LTO)"
+    )
+    public Profile profile = Profile.debug;
+
+    @Option(
+        names = "--lto",
+        description = "Link with LTO even if the profile does not"
+    )
+    public boolean lto = false;
+
+    @Option(
+        names = "--pgo",
+        paramLabel = "<training command>",
+        description = "Optimize build/a.out, in build and run, with a " +
+        "profile recorded by running this shell command against an " +
+        "instrumented build of it"
+    )
+    public String pgo = null;
+
+    Path root = Path.of(".");
+    PrintStream out = System.out;
+    PrintStream err = System.err;
+
+    BuildCache cache;
+    List<BuildCache.Unit> units;
+    List<Path> outFiles;
+    List<String> exports;
+
+    enum Emission {
+        trace,
+        lean,
+    }
+
+    /// How the IR fragments and the runtime are turned into a binary.
+    enum Profile {
+        debug("debug", 0, false, false),
+        release("release", 2, false, false),
+        releaseNative("release-native", 3, true, true);
+
+        final String displayName;
+        final int optimization;
+        final boolean targetsHost;
+        final boolean lto;
+
+        Profile(
+            String displayName,
+            int optimization,
+            boolean targetsHost,
+            boolean lto
+        ) {
+            this.displayName = displayName;
+            this.optimization = optimization;
+            this.targetsHost = targetsHost;
+            this.lto = lto;
+        }
+
+        public boolean usesLto(boolean forceLto) {
+            return this.lto || forceLto;
+        }
+
+        /// The clang flags of this profile. LTO needs a linker that can read
+        /// bitcode, so it also switches to lld; see `requireLinker`.
+        public List<String> flags(boolean forceLto) {
+            var flags = new ArrayList<String>();
+            flags.add("-O" + this.optimization);
+            if (this.optimization == 0) {
+                flags.add("-g");
+            } else {
+                // Acorn functions are small and call each other a lot
+                flags.add("-mllvm");
+                flags.add(
+                    "-inline-threshold=" + (this.optimization >= 3 ? 500 : 325)
+                );
+            }
+            if (this.targetsHost) {
+                flags.add("-march=native");
+            }
+            if (this.usesLto(forceLto)) {
+                flags.add("-flto");
+                flags.add("-fuse-ld=lld");
+            }
+            return flags;
+        }
+
+        @Override
+        public String toString() {
+            return this.displayName;
+        }
+
+        static class Parser implements CommandLine.ITypeConverter<Profile> {
+
+            @Override
+            public Profile convert(String value) {
+                for (var profile : Profile.values()) {
+                    if (profile.displayName.equals(value)) {
+                        return profile;
+                    }
+                }
+                throw new CommandLine.TypeConversionException(
+                    "Unknown profile `" +
+                    value +
+                    "`, expected debug, release or release-native"
+                );
+            }
+        }
+    }
 
     enum Mode {
         check,
         build,
-        run;
+        run,
+        daemon;
 
         public int compilationHierarchy() {
             return switch (this) {
                 case Mode.check -> 0;
                 case Mode.build -> 1;
                 case Mode.run -> 2;
+                case Mode.daemon -> -1;
             };
         }
     }
 
     @Override
-    public void run() {
-        try {
-            if (!Files.exists(Path.of("./build/"))) {
-                Files.createDirectories(Path.of("./build"));
+    public Integer call() throws IOException {
+        if (this.mode == Mode.daemon) {
+            Daemon.create().serve(Daemon.socket());
+            return 0;
+        }
+        if (!this.noDaemon) {
+            var daemon = this.connectToDaemon();
+            if (daemon != null) {
+                var code = Daemon.forward(daemon, this);
+                if (code != 0 || this.mode != Mode.run) {
+                    return code;
+                }
+                this.executeOutFile();
+                return 0;
             }
+        }
+        return this.compile();
+    }
+
+    /// The channel to this user's daemon, or null to compile in this
+    /// process because none is usable.
+    SocketChannel connectToDaemon() {
+        try {
+            return Daemon.connect(Daemon.socket());
+        } catch (IOException e) {
+            this.err.println(
+                "warning: not using the daemon: " + e.getMessage()
+            );
+            return null;
+        }
+    }
+
+    /// Runs the requested mode in this process and returns its exit code.
+    public int compile() {
+        if (!this.requireLinker()) {
+            return 1;
+        }
+        try {
+            Files.createDirectories(this.root.resolve("build"));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        if (this.cache == null) {
+            this.cache = BuildCache.open(
+                this.root.resolve("build").resolve("cache")
+            );
+        }
 
-        if (this.mode.compilationHierarchy() >= 0) {
-            this.headers = getHeaders();
+        try {
+            if (this.mode.compilationHierarchy() >= 0) {
+                this.units = getUnits();
+            }
+            if (this.mode.compilationHierarchy() >= 1) {
+                this.outFiles = this.compileToOutFiles();
+                this.linkOutFiles();
+            }
+            if (this.mode.compilationHierarchy() >= 2) {
+                this.executeOutFile();
+            }
+        } catch (SpannedException e) {
+            ErrorPrinter.print(e, this.out);
+            return 1;
         }
-        if (this.mode.compilationHierarchy() >= 1) {
-            this.outFile = this.compileToOutFile();
+        return 0;
+    }
+
+    public List<BuildCache.Unit> getUnits() {
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Path> paths;
+            try (var walk = Files.walk(this.root.resolve("src"))) {
+                paths = walk
+                    .filter(Files::isRegularFile)
+                    .filter(x -> x.toString().endsWith(".acorn"))
+                    .sorted()
+                    .toList();
+            }
+
+            // every file is tokenized and parsed independently; the results
+            // are merged in submission order so the output is deterministic
+            var tasks = new ArrayList<Future<BuildCache.Unit>>();
+            var stdlib = this.loadStdlib();
+            tasks.add(
+                executor.submit(() ->
+                    this.cache.load(stdlib, "internal.stdlib.acorn")
+                )
+            );
+            for (var path : paths) {
+                tasks.add(
+                    executor.submit(() ->
+                        this.cache.load(this.readSource(path), path.toString())
+                    )
+                );
+            }
+
+            var units = new ArrayList<BuildCache.Unit>();
+            for (var task : tasks) {
+                units.add(task.get());
+            }
+            return units;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SpannedException spanned) {
+                throw spanned;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (URISyntaxException | IOException | InterruptedException e) {
+            throw new RuntimeException(e);
         }
-        if (this.mode.compilationHierarchy() >= 2) {
-            this.executeOutFile();
+    }
+
+    public CharSequence readSource(Path path) throws IOException {
+        if (this.mmap) {
+            return MappedSource.map(path);
         }
+        return Files.readString(path);
     }
 
-    public List<Header> getHeaders() {
+    /// Emits one IR fragment per source file. A fragment is reused from the
+    /// build cache when neither its file nor any signature changed.
+    public List<Path> compileToOutFiles() {
         try {
-            var contents = new StringBuilder();
-            var tokenArray = new ArrayList<Token>();
-            tokenArray.addAll(
-                Tokenizer.create(
-                    this.loadStdlib(),
-                    "internal.stdlib.acorn"
-                ).tokenize()
+            var ctx = GlobalContext.create(this.emission == Emission.trace);
+            for (var unit : this.units) {
+                unit.headers().forEach(x -> x.preprocess(ctx, ""));
+            }
+            var signatureHash = BuildCache.signatureHash(ctx);
+            this.exports = ctx
+                .functions()
+                .values()
+                .stream()
+                .filter(FunctionRecord::exported)
+                .map(FunctionRecord::mangling)
+                .distinct()
+                .sorted()
+                .toList();
+            if (this.escapeReport) {
+                this.reportEscapes(ctx);
+            }
+
+            var outFiles = new ArrayList<Path>();
+            for (var unit : this.units) {
+                outFiles.add(
+                    this.cache.fragment(unit, signatureHash, outFile ->
+                        this.emitUnit(unit, ctx, outFile)
+                    )
+                );
+            }
+            return outFiles;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void reportEscapes(GlobalContext ctx) {
+        ctx
+            .functions()
+            .entrySet()
+            .stream()
+            .filter(x -> x.getValue().function().statements() != null)
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(x ->
+                this.out.println(
+                    x.getKey() +
+                    ": " +
+                    EscapeAnalysis.analyze(
+                        x.getValue().function()
+                    ).removedAllocations() +
+                    " heap allocations removed"
+                )
             );
+    }
 
-            Files.walk(Path.of("./src/"))
-                .filter(Files::isRegularFile)
-                .filter(x -> x.toString().endsWith(".acorn"))
-                .forEach(path -> {
-                    try {
-                        tokenArray.addAll(
-                            Tokenizer.create(
-                                Files.readString(path),
-                                path.toString()
-                            ).tokenize()
-                        );
-                        contents.append("\n\n").append(Files.readString(path));
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
+    public void emitUnit(
+        BuildCache.Unit unit,
+        GlobalContext ctx,
+        Path outFile
+    ) throws IOException {
+        var module = Module.builder();
+        ctx.glue(module, unit.hash());
 
-            var parser = Parser.create(tokenArray);
+        // functions defined by other files are linked in from their own
+        // fragments, so this module only declares them
+        for (var entry : ctx.functions().entrySet()) {
+            var record = entry.getValue();
+            if (record.span().fileName().equals(unit.fileName())) {
+                continue;
+            }
+            var name = entry.getKey();
+            var function = record.function();
+            function.declare(
+                module,
+                ctx,
+                name.substring(0, name.length() - function.name().length())
+            );
+        }
+        unit.headers().forEach(x -> x.emit(module, ctx, ""));
+        ctx.glue(module).emit(module, ctx);
 
-            return parser.parseHeaders(true);
-        } catch (SpannedException e) {
-            ErrorPrinter.print(e);
-            System.exit(1);
-            throw new RuntimeException("unreachable");
-        } catch (URISyntaxException | IOException e) {
+        module.build().emit(outFile);
+    }
+
+    /// Links `build/a.out` with the options of the build profile, so `build`
+    /// and `run` produce the same binary.
+    public void linkOutFiles() {
+        try {
+            var binary = this.binary();
+            var flags = new ArrayList<>(this.profile.flags(this.lto));
+            if (this.pgo != null) {
+                flags.add("-fprofile-use=" + this.trainProfile(binary));
+            }
+            this.link(binary, flags);
+            this.out.println(
+                "Built " +
+                binary +
+                " with profile " +
+                this.profile +
+                " (" +
+                String.join(" ", flags) +
+                ")"
+            );
+        } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public Path compileToOutFile() {
+    /// Runs the binary attached to this process's stdin, stdout and stderr,
+    /// so it reads input and sees the environment of whoever ran `run`.
+    public void executeOutFile() {
         try {
-            var ctx = GlobalContext.create();
-            var module = Module.builder();
-            this.headers.forEach(x -> x.preprocess(ctx, ""));
-            this.headers.forEach(x -> x.emit(module, ctx, ""));
+            var returns = new ProcessBuilder(this.binary().toString())
+                .directory(this.root.toFile())
+                .inheritIO()
+                .start()
+                .waitFor();
+            this.out.println("Exited with code " + returns);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            try {
-                var outFile = Paths.get("./build/output.ll");
-                module.build().emit(outFile);
-                return outFile;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /// Checks that lld can be found when the build links with LTO, so a
+    /// missing linker is reported before anything is compiled rather than as
+    /// an obscure clang failure at the end.
+    boolean requireLinker() {
+        if (
+            this.mode.compilationHierarchy() < 1 ||
+            !this.profile.usesLto(this.lto) ||
+            onPath("ld.lld")
+        ) {
+            return true;
+        }
+        this.err.println(
+            "error: profile " +
+            this.profile +
+            (this.lto ? " with --lto" : "") +
+            " links with lld, but ld.lld is not on the PATH; install lld " +
+            "or pick a profile without LTO"
+        );
+        return false;
+    }
+
+    static boolean onPath(String tool) {
+        var path = System.getenv().getOrDefault("PATH", "");
+        for (var directory : path.split(File.pathSeparator)) {
+            if (
+                !directory.isEmpty() &&
+                Files.isExecutable(Path.of(directory, tool))
+            ) {
+                return true;
             }
-        } catch (SpannedException e) {
-            ErrorPrinter.print(e);
-            System.exit(1);
-            throw new RuntimeException("unreachable");
         }
+        return false;
     }
 
-    public void executeOutFile() {
-        try {
-            var p1 = Runtime.getRuntime().exec(
-                new String[] {
-                    "clang",
-                    this.outFile.toString(),
-                    "-o",
-                    "./build/a.out",
+    Path binary() {
+        return this.root.resolve("build").resolve("a.out");
+    }
+
+    /// Links the IR fragments into one module in which only exported
+    /// functions stay visible, then builds it with the C runtime. Once the
+    /// other functions are internal, globalopt moves those that are only
+    /// called directly to the fastcc calling convention, and the optimizer
+    /// is free to inline or drop them.
+    public void link(Path binary, List<String> flags)
+        throws IOException, InterruptedException {
+        var build = this.root.resolve("build");
+        var linked = build.resolve("linked.bc");
+        var internalized = build.resolve("internalized.bc");
+        // a failed step must not leave the previous link's output behind
+        Files.deleteIfExists(linked);
+        Files.deleteIfExists(internalized);
+
+        var command = new ArrayList<String>();
+        command.add("llvm-link");
+        this.outFiles.forEach(x -> command.add(x.toString()));
+        command.add("-o");
+        command.add(linked.toString());
+        this.execTool(command);
+
+        this.execTool(
+            List.of(
+                "opt",
+                "-passes=internalize,globalopt",
+                "-internalize-public-api-list=" +
+                String.join(",", this.exports),
+                linked.toString(),
+                "-o",
+                internalized.toString()
+            )
+        );
+
+        command.clear();
+        command.add("clang");
+        command.addAll(flags);
+        command.add(internalized.toString());
+        command.add(this.extractRuntime().toString());
+        command.add("-o");
+        command.add(binary.toString());
+        this.execTool(command);
+    }
+
+    /// Runs a step of the link. Its diagnostics have already been copied to
+    /// this command's error stream when it fails, so only the exit code is
+    /// reported.
+    void execTool(List<String> command)
+        throws IOException, InterruptedException {
+        var returns = this.exec(command);
+        if (returns != 0) {
+            throw new RuntimeException(
+                command.getFirst() + " exited with code " + returns
+            );
+        }
+    }
+
+    /// Builds an instrumented binary, runs the training command against it
+    /// and merges the profiles it wrote. The merged profile is kept in
+    /// `build/pgo` and reused until a source file or a build option changes.
+    public Path trainProfile(Path binary)
+        throws IOException, InterruptedException {
+        var directory = this.root.resolve("build").resolve("pgo");
+        var key = BuildCache.hash(
+            this.units.stream().map(BuildCache.Unit::hash).toList().toString(),
+            this.profile.name(),
+            Boolean.toString(this.lto),
+            this.pgo
+        );
+        var merged = directory.resolve(key + ".profdata");
+        if (Files.exists(merged)) {
+            return merged;
+        }
+
+        // profiles of older sources are never used again
+        if (Files.exists(directory)) {
+            try (var walk = Files.walk(directory)) {
+                var paths = walk.sorted(Comparator.reverseOrder()).toList();
+                for (var path : paths) {
+                    Files.delete(path);
                 }
+            }
+        }
+        var raw = directory.resolve("raw");
+        Files.createDirectories(raw);
+
+        var flags = new ArrayList<>(this.profile.flags(this.lto));
+        flags.add("-fprofile-generate=" + raw);
+        try {
+            this.link(binary, flags);
+        } catch (RuntimeException e) {
+            // training must not run whatever binary an earlier build left
+            Files.deleteIfExists(binary);
+            throw new RuntimeException(
+                "PGO instrumented build failed: " + e.getMessage(),
+                e
+            );
+        }
+        this.out.println("Training with `" + this.pgo + "`");
+        var trained = this.exec(List.of("sh", "-c", this.pgo));
+        if (trained != 0) {
+            throw new RuntimeException(
+                "PGO training command exited with code " + trained
             );
-            p1.getInputStream().transferTo(System.out);
-            p1.getErrorStream().transferTo(System.err);
-            p1.waitFor();
+        }
 
-            var p2 = Runtime.getRuntime().exec(
-                new String[] { "./build/a.out" }
+        var merge = new ArrayList<String>();
+        merge.add("llvm-profdata");
+        merge.add("merge");
+        merge.add("-output=" + merged);
+        try (var files = Files.list(raw)) {
+            files
+                .filter(x -> x.toString().endsWith(".profraw"))
+                .sorted()
+                .forEach(x -> merge.add(x.toString()));
+        }
+        if (merge.size() == 3) {
+            throw new RuntimeException(
+                "PGO training command did not run " + binary
             );
-            p2.getInputStream().transferTo(System.out);
-            p2.getErrorStream().transferTo(System.err);
-            var returns = p2.waitFor();
-            System.out.println("Exited with code " + returns);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
+        if (this.exec(merge) != 0) {
+            Files.deleteIfExists(merged);
+            throw new RuntimeException("llvm-profdata could not merge " + raw);
+        }
+        return merged;
+    }
+
+    /// Runs `command` in the project root, copying its output to this
+    /// command's, and returns its exit code.
+    int exec(List<String> command) throws IOException, InterruptedException {
+        var process = Runtime.getRuntime().exec(
+            command.toArray(String[]::new),
+            null,
+            this.root.toFile()
+        );
+        // both pipes are drained at once; a child that fills the one not
+        // being read would otherwise block forever
+        var errors = Thread.ofVirtual().start(() -> {
+            try {
+                process.getErrorStream().transferTo(this.err);
+            } catch (IOException ignored) {
+                // the process is gone; its exit code tells the rest
+            }
+        });
+        process.getInputStream().transferTo(this.out);
+        errors.join();
+        return process.waitFor();
+    }
+
+    /// Copies the C runtime out of the compiler's resources so clang can
+    /// build it alongside the IR fragments.
+    public Path extractRuntime() throws IOException {
+        var runtime = this.root.resolve("build").resolve("acorn_rt.c");
+        try (
+            var in = Objects.requireNonNull(
+                Main.class.getResourceAsStream("/runtime/acorn_rt.c")
+            )
+        ) {
+            Files.copy(in, runtime, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return runtime;
     }
 
     public String loadStdlib() throws URISyntaxException, IOException {
         var sb = new StringBuilder();
-        var files = new String[] { "/std/entrypoint.acorn", "/std/libc.acorn" };
+        var files = new String[] {
+            "/std/entrypoint.acorn",
+            "/std/libc.acorn",
+            "/std/rt.acorn",
+        };
         for (var file : files) {
             sb
                 .append(
@@ -0,0 +1,287 @@
+package acorn.ui;
+
+import acorn.cache.BuildCache;
+import acorn.token.Tokenizer;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.net.ExtendedSocketOptions;
+
+/// A long-lived compiler process that serves `check`, `build` and `run`
+/// requests over a Unix domain socket, so repeated invocations skip JVM
+/// startup and JIT warm-up. The build cache of every project it has served is
+/// kept open, so the stdlib and unchanged files are not parsed again.
+///
+/// A request is the project root, the mode and the codegen options. The reply
+/// is a sequence of frames: output written to stdout or stderr, followed by
+/// the exit code. The daemon only compiles and links; `run` executes the
+/// binary in the client, with the client's stdin and environment.
+public class Daemon {
+
+    public static final String SOCKET_NAME = "acorn-daemon.sock";
+
+    static final byte FRAME_OUT = 0;
+    static final byte FRAME_ERR = 1;
+    static final byte FRAME_EXIT = 2;
+
+    Map<Path, BuildCache> caches = new HashMap<>();
+
+    public static Daemon create() {
+        return new Daemon();
+    }
+
+    /// The socket of the current user's daemon. It lives in
+    /// `$XDG_RUNTIME_DIR` when there is one, otherwise in a directory of the
+    /// temp dir that only this user may enter, so no other user can listen
+    /// in place of the daemon or send it requests. Clients only connect to
+    /// it; the directory is created by `serve`.
+    public static Path socket() {
+        if (Daemon.hasRuntimeDirectory()) {
+            return Path.of(System.getenv("XDG_RUNTIME_DIR")).resolve(
+                SOCKET_NAME
+            );
+        }
+        return Path.of(
+            System.getProperty("java.io.tmpdir"),
+            "acorn-" + System.getProperty("user.name"),
+            SOCKET_NAME
+        );
+    }
+
+    static boolean hasRuntimeDirectory() {
+        var runtime = System.getenv("XDG_RUNTIME_DIR");
+        return runtime != null && !runtime.isEmpty();
+    }
+
+    /// Creates the directory of `socket` in the temp dir, or checks that the
+    /// existing one is private to the current user.
+    static void createPrivateDirectory(Path socket) throws IOException {
+        var directory = socket.getParent();
+        var owner = Daemon.currentUser();
+        var permissions = PosixFilePermissions.fromString("rwx------");
+        try {
+            Files.createDirectory(
+                directory,
+                PosixFilePermissions.asFileAttribute(permissions)
+            );
+        } catch (FileAlreadyExistsException ignored) {
+            // checked below like any other existing directory
+        }
+        if (
+            !Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) ||
+            !Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).equals(
+                owner
+            ) ||
+            !Files.getPosixFilePermissions(
+                directory,
+                LinkOption.NOFOLLOW_LINKS
+            ).equals(permissions)
+        ) {
+            throw new IOException(
+                directory + " must be a directory private to " + owner
+            );
+        }
+    }
+
+    static UserPrincipal currentUser() throws IOException {
+        return FileSystems.getDefault()
+            .getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    /// Fails unless the process at the other end of `channel` runs as the
+    /// current user.
+    static void checkPeer(SocketChannel channel) throws IOException {
+        var peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+        if (!peer.user().equals(Daemon.currentUser())) {
+            throw new IOException(
+                "Refusing daemon connection from user " + peer.user()
+            );
+        }
+    }
+
+    /// Listens on `socket` until the process is killed. A socket file that
+    /// is still answered belongs to a running daemon and is left alone; only
+    /// one left over from a daemon that is gone is replaced.
+    public void serve(Path socket) throws IOException {
+        if (!Daemon.hasRuntimeDirectory()) {
+            Daemon.createPrivateDirectory(socket);
+        }
+        if (Daemon.answers(socket)) {
+            throw new IOException("A daemon is already listening on " + socket);
+        }
+        Files.deleteIfExists(socket);
+        try (
+            var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+        ) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            System.out.println("Acorn daemon listening on " + socket);
+
+            while (true) {
+                try (var channel = server.accept()) {
+                    Daemon.checkPeer(channel);
+                    this.handle(channel);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    void handle(SocketChannel channel) throws IOException {
+        var in = new DataInputStream(Channels.newInputStream(channel));
+        var out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel))
+        );
+
+        var cli = new CLI();
+        cli.root = Path.of(in.readUTF());
+        cli.mode = CLI.Mode.valueOf(in.readUTF());
+        cli.mmap = in.readBoolean();
+        cli.emission = CLI.Emission.valueOf(in.readUTF());
+        cli.escapeReport = in.readBoolean();
+        cli.profile = CLI.Profile.valueOf(in.readUTF());
+        cli.lto = in.readBoolean();
+        var pgo = in.readUTF();
+        cli.pgo = pgo.isEmpty() ? null : pgo;
+        cli.cache = this.caches.computeIfAbsent(cli.root, root ->
+            BuildCache.open(root.resolve("build").resolve("cache"))
+        );
+        cli.out = new PrintStream(
+            new FrameOutputStream(out, FRAME_OUT),
+            true,
+            StandardCharsets.UTF_8
+        );
+        cli.err = new PrintStream(
+            new FrameOutputStream(out, FRAME_ERR),
+            true,
+            StandardCharsets.UTF_8
+        );
+
+        int code;
+        try {
+            code = cli.compile();
+        } catch (RuntimeException e) {
+            e.printStackTrace(cli.err);
+            code = 1;
+        } finally {
+            Tokenizer.forgetSources();
+        }
+        cli.out.flush();
+        cli.err.flush();
+
+        out.writeByte(FRAME_EXIT);
+        out.writeInt(code);
+        out.flush();
+    }
+
+    static boolean answers(Path socket) {
+        try (var _ = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /// Connects to the daemon listening on `socket`, or returns null if none
+    /// is, for instance because the socket is left over from a daemon that
+    /// is no longer running.
+    public static SocketChannel connect(Path socket) throws IOException {
+        if (!Files.exists(socket)) {
+            return null;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            Daemon.checkPeer(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /// Sends the request described by `cli` to the daemon at the other end
+    /// of `channel`, copies its output to this process and returns its exit
+    /// code. Once the request is sent, the daemon may already be building,
+    /// so errors are not retried locally. A `run` is sent as a `build`; the
+    /// caller runs the binary.
+    public static int forward(SocketChannel channel, CLI cli)
+        throws IOException {
+        try (channel) {
+            var mode = cli.mode == CLI.Mode.run ? CLI.Mode.build : cli.mode;
+            var out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeUTF(cli.root.toAbsolutePath().normalize().toString());
+            out.writeUTF(mode.name());
+            out.writeBoolean(cli.mmap);
+            out.writeUTF(cli.emission.name());
+            out.writeBoolean(cli.escapeReport);
+            out.writeUTF(cli.profile.name());
+            out.writeBoolean(cli.lto);
+            out.writeUTF(cli.pgo == null ? "" : cli.pgo);
+            out.flush();
+
+            var in = new DataInputStream(Channels.newInputStream(channel));
+            while (true) {
+                var frame = in.readByte();
+                if (frame == FRAME_EXIT) {
+                    return in.readInt();
+                }
+                var bytes = in.readNBytes(in.readInt());
+                (frame == FRAME_OUT ? cli.out : cli.err).write(bytes);
+            }
+        }
+    }
+
+    /// Writes everything it receives to the client as frames of one kind.
+    static class FrameOutputStream extends OutputStream {
+
+        DataOutputStream out;
+        byte frame;
+
+        FrameOutputStream(DataOutputStream out, byte frame) {
+            this.out = out;
+            this.frame = frame;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.writeByte(this.frame);
+            this.out.writeInt(len);
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+    }
+}
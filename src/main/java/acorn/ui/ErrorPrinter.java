@@ -1,28 +1,28 @@
 package acorn.ui;
 
 import acorn.token.SpannedException;
-import java.util.HashMap;
+import java.io.PrintStream;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ErrorPrinter {
 
-    public static Map<String, String> FILE_CONTENTS = new HashMap<>();
+    public static Map<String, CharSequence> FILE_CONTENTS =
+        new ConcurrentHashMap<>();
 
-    public static void print(SpannedException e) {
-        System.out.println(e.error().message());
+    public static void print(SpannedException e, PrintStream out) {
+        out.println(e.error().message());
 
+        var location = e.getSpan().location();
         var line = FILE_CONTENTS.get(e.getSpan().fileName())
+            .toString()
             .lines()
-            .skip(e.getSpan().location().row())
+            .skip(location.row())
             .findFirst()
             .orElseThrow();
-        System.out.println(line);
-        System.out.println(
-            " ".repeat(e.getSpan().location().column() - 1) + "^"
-        );
-        System.out.println(
-            e.getSpan().fileName().trim() + " @ " + e.getSpan().location().row()
-        );
-        e.printStackTrace();
+        out.println(line);
+        out.println(" ".repeat(location.column() - 1) + "^");
+        out.println(e.getSpan().fileName().trim() + " @ " + location.row());
+        e.printStackTrace(out);
     }
 }
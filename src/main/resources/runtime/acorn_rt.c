@@ -0,0 +1,240 @@
+// Runtime support linked into every Acorn binary. Anything that needs a
+// branch or a loop lives here, so the compiler only ever emits straight-line
+// code.
+
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+// Boxes of up to ACORN_POOL_LIMIT bytes come from per-thread free lists, one
+// for each multiple of ACORN_SIZE_STEP. Larger requests go to malloc.
+#define ACORN_SIZE_STEP 16
+#define ACORN_SIZE_CLASSES 16
+#define ACORN_POOL_LIMIT (ACORN_SIZE_STEP * ACORN_SIZE_CLASSES)
+// Blocks carved out of one malloc when a free list runs dry.
+#define ACORN_POOL_REFILL 64
+
+// Counts of literal boxes, which live in globals and are never freed. The
+// count functions leave any box at or above it alone, so those globals are
+// only ever read and can be shared between threads.
+#define ACORN_IMMORTAL (1 << 30)
+
+// Header at the start of every box; the payload follows it directly. It is
+// padded to 16 bytes so that a payload of any alignment starts right after it.
+typedef struct acorn_box {
+    int32_t strong;
+    int32_t weak;
+    int64_t reserved;
+} acorn_box;
+
+_Static_assert(sizeof(acorn_box) == 16, "box headers are 16 bytes");
+
+// An array box: the header, the length and then exactly `length` elements,
+// all in one allocation. Where the elements start depends on their
+// alignment, so the compiler passes that offset as `base`.
+typedef struct acorn_array {
+    acorn_box header;
+    int64_t length;
+} acorn_array;
+
+// Drop glue generated by the compiler for one payload type. It releases the
+// references held by the payload and then deallocates the box.
+typedef void (*acorn_drop)(acorn_box *box);
+
+// Copy glue generated by the compiler for one payload type. It returns a new
+// box holding a copy of the payload, with everything it refers to retained.
+typedef acorn_box *(*acorn_copy)(acorn_box *box);
+
+// Element glue generated by the compiler for arrays of unboxed structs. It
+// releases or retains the references held by the element at the address.
+typedef void (*acorn_element_glue)(void *element);
+
+// The compiler's tests build the runtime with ACORN_COUNT_ALLOCATIONS, which
+// counts every box handed out and given back and reports both totals when the
+// program exits. Any difference between them is a leak or a double free.
+#ifdef ACORN_COUNT_ALLOCATIONS
+#include <stdio.h>
+
+static int64_t acorn_allocations;
+static int64_t acorn_frees;
+
+static void acorn_report(void) {
+    fprintf(
+        stderr,
+        "acorn: %lld allocations, %lld frees\n",
+        (long long) acorn_allocations,
+        (long long) acorn_frees
+    );
+}
+
+__attribute__((constructor)) static void acorn_start_counting(void) {
+    atexit(acorn_report);
+}
+
+#define ACORN_COUNT(counter) ((counter)++)
+#else
+#define ACORN_COUNT(counter) ((void) 0)
+#endif
+
+typedef struct acorn_free_block {
+    struct acorn_free_block *next;
+} acorn_free_block;
+
+static _Thread_local acorn_free_block *acorn_pools[ACORN_SIZE_CLASSES];
+
+// Refills an empty free list and returns one of the new blocks. Pool memory
+// is never handed back to malloc; freed blocks are reused instead.
+static void *acorn_refill(int64_t class) {
+    int64_t size = (class + 1) * ACORN_SIZE_STEP;
+    char *chunk = malloc(size * ACORN_POOL_REFILL);
+    if (chunk == NULL) {
+        return NULL;
+    }
+    for (int64_t i = 1; i < ACORN_POOL_REFILL - 1; i++) {
+        ((acorn_free_block *) (chunk + i * size))->next =
+            (acorn_free_block *) (chunk + (i + 1) * size);
+    }
+    ((acorn_free_block *) (chunk + (ACORN_POOL_REFILL - 1) * size))->next =
+        NULL;
+    acorn_pools[class] = (acorn_free_block *) (chunk + size);
+    return chunk;
+}
+
+void *acorn_alloc(int64_t size) {
+    ACORN_COUNT(acorn_allocations);
+    if (size <= 0 || size > ACORN_POOL_LIMIT) {
+        return malloc(size);
+    }
+    int64_t class = (size - 1) / ACORN_SIZE_STEP;
+    acorn_free_block *block = acorn_pools[class];
+    if (block == NULL) {
+        return acorn_refill(class);
+    }
+    acorn_pools[class] = block->next;
+    return block;
+}
+
+// `size` must be the size the block was allocated with.
+void acorn_free(void *ptr, int64_t size) {
+    ACORN_COUNT(acorn_frees);
+    if (size <= 0 || size > ACORN_POOL_LIMIT) {
+        free(ptr);
+        return;
+    }
+    int64_t class = (size - 1) / ACORN_SIZE_STEP;
+    acorn_free_block *block = ptr;
+    block->next = acorn_pools[class];
+    acorn_pools[class] = block;
+}
+
+void acorn_retain(acorn_box *box) {
+    if (box->strong < ACORN_IMMORTAL) {
+        box->strong++;
+    }
+}
+
+void acorn_release(acorn_box *box, acorn_drop drop) {
+    if (box == NULL || box->strong >= ACORN_IMMORTAL) {
+        return;
+    }
+    if (--box->strong == 0) {
+        drop(box);
+    }
+}
+
+void acorn_release_elements(
+    acorn_box **elements,
+    int64_t length,
+    acorn_drop drop
+) {
+    for (int64_t i = 0; i < length; i++) {
+        acorn_release(elements[i], drop);
+    }
+}
+
+// The strong references collectively hold one weak reference, which drop glue
+// gives up here once the payload is gone.
+void acorn_dealloc(acorn_box *box, int64_t size) {
+    if (--box->weak == 0) {
+        acorn_free(box, size);
+    }
+}
+
+// Perceus-style reuse for an update that replaces `old` with a new box of
+// the same size. When nothing else refers to `old`, its payload is cleared
+// and the box itself is handed back, counts still at 1.
+acorn_box *acorn_reuse(
+    acorn_box *old,
+    acorn_drop clear,
+    acorn_drop drop,
+    int64_t size
+) {
+    if (old->strong == 1 && old->weak == 1) {
+        clear(old);
+        return old;
+    }
+    acorn_release(old, drop);
+    acorn_box *box = acorn_alloc(size);
+    box->strong = 1;
+    box->weak = 1;
+    return box;
+}
+
+// Write barrier for copy-on-write value semantics: gives the slot a private
+// copy of its box before the caller writes through it, unless the slot holds
+// the only reference. Immortal boxes are always shared, so literals are
+// copied too.
+void acorn_unshare(acorn_box **slot, acorn_copy copy) {
+    acorn_box *box = *slot;
+    if (box->strong > 1) {
+        *slot = copy(box);
+        if (box->strong < ACORN_IMMORTAL) {
+            box->strong--;
+        }
+    }
+}
+
+static int64_t acorn_array_size(int64_t length, int64_t base, int64_t size) {
+    return base + length * size;
+}
+
+// Allocates an array box for `length` elements of `size` bytes each, the
+// first of which starts `base` bytes into the box. The caller stores the
+// elements.
+acorn_array *acorn_alloc_array(int64_t length, int64_t base, int64_t size) {
+    acorn_array *array = acorn_alloc(acorn_array_size(length, base, size));
+    array->header.strong = 1;
+    array->header.weak = 1;
+    array->length = length;
+    return array;
+}
+
+// `acorn_dealloc` for array boxes, whose size depends on their length.
+void acorn_dealloc_array(acorn_array *array, int64_t base, int64_t size) {
+    if (--array->header.weak == 0) {
+        acorn_free(array, acorn_array_size(array->length, base, size));
+    }
+}
+
+// Copies an array box for copy-on-write. Retaining what the elements refer
+// to is left to the caller, which knows their type.
+acorn_array *acorn_copy_array(acorn_array *array, int64_t base, int64_t size) {
+    int64_t bytes = acorn_array_size(array->length, base, size);
+    acorn_array *copy = acorn_alloc(bytes);
+    memcpy(copy, array, bytes);
+    copy->header.strong = 1;
+    copy->header.weak = 1;
+    return copy;
+}
+
+// Runs element glue on each of `length` elements of `size` bytes.
+void acorn_for_each(
+    char *elements,
+    int64_t length,
+    int64_t size,
+    acorn_element_glue glue
+) {
+    for (int64_t i = 0; i < length; i++) {
+        glue(elements + i * size);
+    }
+}
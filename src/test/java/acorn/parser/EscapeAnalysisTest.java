@@ -0,0 +1,103 @@
+package acorn.parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import acorn.parser.ast.Header;
+import org.junit.jupiter.api.Test;
+
+class EscapeAnalysisTest {
+
+    static EscapeAnalysis analyze(String body) {
+        var headers = Parser.parseSource(
+            "fn f(p i32) -> i32 {\n" + body + "\n}",
+            "escape.acorn"
+        );
+        return EscapeAnalysis.analyze(
+            assertInstanceOf(Header.Function.class, headers.getFirst())
+        );
+    }
+
+    @Test
+    void boxReadInPlaceStaysOnTheStack() {
+        var analysis = analyze(
+            """
+            x = 1 + 2
+            x = x + 3
+            s = {v i32 = 4 + 0}
+            s.v = s.v + x
+            return s.v + 0
+            """
+        );
+        assertTrue(analysis.onStack("x"));
+        assertTrue(analysis.onStack("s"));
+        assertEquals(3, analysis.removedAllocations());
+    }
+
+    /// Returning a variable that would otherwise be a stack candidate must
+    /// keep it on the heap, or the caller would get a dangling box.
+    @Test
+    void returnedBoxEscapes() {
+        var analysis = analyze(
+            """
+            x = 1 + 2
+            x = x + 3
+            return x
+            """
+        );
+        assertFalse(analysis.onStack("x"));
+        assertEquals(0, analysis.removedAllocations());
+    }
+
+    @Test
+    void passedBoxEscapes() {
+        var analysis = analyze(
+            """
+            x = 1 + 2
+            return f(x)
+            """
+        );
+        assertFalse(analysis.onStack("x"));
+    }
+
+    @Test
+    void boxStoredInAFieldEscapes() {
+        var analysis = analyze(
+            """
+            x = 1 + 2
+            s = {v i32 = x}
+            a = [x]
+            return s.v + a[0]
+            """
+        );
+        assertFalse(analysis.onStack("x"));
+        assertTrue(analysis.onStack("s"));
+        assertTrue(analysis.onStack("a"));
+    }
+
+    @Test
+    void aliasedBoxEscapes() {
+        var analysis = analyze(
+            """
+            x = 1 + 2
+            y = x
+            return y + 0
+            """
+        );
+        assertFalse(analysis.onStack("x"));
+        assertFalse(analysis.onStack("y"));
+    }
+
+    @Test
+    void parametersNeverMoveToTheStack() {
+        var analysis = analyze(
+            """
+            p = p + 1
+            return p + 0
+            """
+        );
+        assertFalse(analysis.onStack("p"));
+    }
+}
@@ -0,0 +1,105 @@
+package acorn.parser.ast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import acorn.parser.CodeGenerator;
+import acorn.parser.EscapeAnalysis;
+import acorn.parser.ctx.GlobalContext;
+import acorn.parser.ctx.StackMap;
+import acorn.token.SpanData;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import org.junit.jupiter.api.Test;
+
+class ExpressionTypeTest {
+
+    static final SpanData SPAN = new SpanData("types.acorn", 0);
+
+    /// A generator with its own type table, like the one each function gets.
+    /// Type inference never emits code, so it needs no module.
+    static CodeGenerator generator(GlobalContext context) {
+        return new CodeGenerator(
+            context,
+            null,
+            null,
+            null,
+            new StackMap(new ArrayList<>()),
+            new IdentityHashMap<>(),
+            new ArrayList<>(),
+            new EscapeAnalysis(),
+            new IdentityHashMap<>()
+        );
+    }
+
+    /// `1 + 2 + ...` as the parser builds it, before simplification.
+    static Expression sum(int terms) {
+        Expression sum = new Expression.Box(new Expression.Integer(1, SPAN));
+        for (int i = 1; i < terms; i++) {
+            sum = new Expression.Box(
+                new Expression.Addition(
+                    new Expression.Unbox(sum),
+                    new Expression.Unbox(
+                        new Expression.Box(new Expression.Integer(i, SPAN))
+                    ),
+                    SPAN
+                )
+            );
+        }
+        return sum;
+    }
+
+    @Test
+    void typesAreInferredOncePerNode() {
+        var gen = generator(GlobalContext.create(false));
+        var sum = sum(40);
+
+        var type = assertInstanceOf(AstType.Boxed.class, sum.inferType(gen));
+        assertInstanceOf(AstType.Integer.class, type.type());
+        var inferred = gen.types().size();
+        assertSame(type, sum.inferType(gen));
+        assertEquals(inferred, gen.types().size());
+    }
+
+    @Test
+    void memoizedTypesAreReturnedWithoutInferring() {
+        var gen = generator(GlobalContext.create(false));
+        var literal = new Expression.Integer(7, SPAN);
+        var memoized = new AstType.Integer(64, SPAN);
+        gen.types().put(literal, memoized);
+
+        assertSame(memoized, literal.inferType(gen));
+        assertSame(
+            memoized,
+            assertInstanceOf(
+                AstType.Boxed.class,
+                new Expression.Box(literal).inferType(gen)
+            ).type()
+        );
+    }
+
+    /// Tables are keyed by node identity and belong to one generator, so
+    /// another function infers the same tree again and an equal but distinct
+    /// node is never served another node's entry.
+    @Test
+    void typesDoNotLeakBetweenGenerators() {
+        var context = GlobalContext.create(false);
+        var first = generator(context);
+        var second = generator(context);
+        var literal = new Expression.Integer(7, SPAN);
+        first.types().put(literal, new AstType.Integer(64, SPAN));
+
+        var type = assertInstanceOf(
+            AstType.Integer.class,
+            literal.inferType(second)
+        );
+        assertEquals(32, type.bits());
+        assertNotSame(first.types().get(literal), type);
+
+        var copy = new Expression.Integer(7, SPAN);
+        assertEquals(literal, copy);
+        assertEquals(32, ((AstType.Integer) copy.inferType(first)).bits());
+    }
+}
@@ -0,0 +1,40 @@
+package acorn.parser.ctx;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import acorn.parser.Parser;
+import acorn.parser.ast.AstType;
+import acorn.token.SpanData;
+import org.junit.jupiter.api.Test;
+
+class TypeTableTest {
+
+    /// `type Node = {v i32, next Node}` leaves a nominal `Node` inside the
+    /// struct, which used to send `unbox(n.next)` into endless recursion.
+    @Test
+    void recursiveAliasUnboxesToItsStruct() {
+        var context = GlobalContext.create(false);
+        Parser.parseSource(
+            "type Node = {v i32, next Node}",
+            "recursive.acorn"
+        ).forEach(x -> x.preprocess(context, ""));
+
+        var node = context
+            .types()
+            .unbox(
+                new AstType.Unresolved("Node", new SpanData("test", 0)),
+                context
+            );
+        var struct = assertInstanceOf(AstType.Struct.class, node);
+        var next = struct.parameters().get(1).type();
+
+        assertInstanceOf(AstType.Boxed.class, next);
+        assertEquals(node, next.unbox(context));
+        assertDoesNotThrow(() -> next.unbox(context).toType(context));
+        assertDoesNotThrow(() ->
+            ((AstType.Boxed) next).type().toType(context)
+        );
+    }
+}
@@ -0,0 +1,88 @@
+package acorn.reader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import acorn.token.SpannedException;
+import acorn.token.Token;
+import acorn.token.TokenBuffer;
+import acorn.token.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+class ReaderTest {
+
+    @Test
+    void charReaderReportsEndOfInputAsEof() {
+        var reader = CharReader.create("ab");
+
+        assertEquals('a', reader.peek());
+        assertEquals('b', reader.peek(1));
+        assertEquals(CharReader.EOF, reader.peek(2));
+        assertEquals('a', reader.next());
+        assertEquals('b', reader.next());
+        assertFalse(reader.hasNext());
+        assertEquals(CharReader.EOF, reader.next());
+        assertEquals(CharReader.EOF, reader.peek());
+        assertEquals(2, reader.index());
+    }
+
+    @Test
+    void charReaderSlicesFromAStart() {
+        var reader = CharReader.create("fn main");
+        reader.next();
+        reader.next();
+        assertEquals("fn", reader.slice(0));
+        reader.next();
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        assertEquals("main", reader.slice(3));
+    }
+
+    static TokenReader read(String source) {
+        return TokenReader.create(
+            Tokenizer.create(source, "reader.acorn", new TokenBuffer())
+                .tokenize()
+        );
+    }
+
+    @Test
+    void tokenReaderPeeksWithoutConsuming() {
+        var reader = read("x = 1");
+
+        var first = reader.peek();
+        assertSame(first, reader.peek());
+        assertInstanceOf(Token.Equals.class, reader.peek(1));
+        assertEquals("x", reader.expect(Token.Identifier.class).name());
+        assertInstanceOf(Token.Equals.class, reader.next());
+        assertEquals(1, reader.expect(Token.Integer.class).value());
+        assertFalse(reader.hasNext());
+        assertEquals(3, reader.length());
+    }
+
+    @Test
+    void tokenReaderReportsErrorsAsSpannedExceptions() {
+        var reader = read("x =");
+
+        var wrong = assertThrows(SpannedException.class, () ->
+            reader.expect(Token.Integer.class)
+        );
+        assertInstanceOf(
+            SpannedException.ErrorType.UnexpectedToken.class,
+            wrong.error()
+        );
+        assertEquals(0, reader.index());
+
+        reader.next();
+        reader.next();
+        assertEquals(reader.length(), reader.index());
+        var eof = assertThrows(SpannedException.class, reader::peek);
+        assertInstanceOf(
+            SpannedException.ErrorType.UnexpectedEOF.class,
+            eof.error()
+        );
+    }
+}
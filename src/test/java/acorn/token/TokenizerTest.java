@@ -0,0 +1,152 @@
+package acorn.token;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import acorn.reader.MappedSource;
+import acorn.token.TokenBuffer.Kind;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TokenizerTest {
+
+    static final String SOURCE = """
+        fn main() -> i32 {
+            x = 12
+            return x + 3
+        }
+        """;
+
+    static TokenBuffer tokenize(CharSequence source, String fileName) {
+        return Tokenizer.create(source, fileName, new TokenBuffer()).tokenize();
+    }
+
+    static List<Kind> kinds(TokenBuffer tokens) {
+        var kinds = new ArrayList<Kind>();
+        for (int i = 0; i < tokens.size(); i++) {
+            kinds.add(tokens.kind(i));
+        }
+        return kinds;
+    }
+
+    @Test
+    void tokensRoundTripThroughTheBuffer() {
+        var tokens = tokenize(SOURCE, "kinds.acorn");
+
+        assertEquals(
+            List.of(
+                Kind.FN_KEYWORD,
+                Kind.IDENTIFIER,
+                Kind.OPEN_PAREN,
+                Kind.CLOSE_PAREN,
+                Kind.RIGHT_ARROW,
+                Kind.IDENTIFIER,
+                Kind.OPEN_BRACE,
+                Kind.IDENTIFIER,
+                Kind.EQUALS,
+                Kind.INTEGER,
+                Kind.RETURN_KEYWORD,
+                Kind.IDENTIFIER,
+                Kind.PLUS,
+                Kind.INTEGER,
+                Kind.CLOSE_BRACE
+            ),
+            kinds(tokens)
+        );
+        assertEquals(
+            new Token.Identifier("main", new SpanData("kinds.acorn", 7)),
+            tokens.get(1)
+        );
+        assertEquals(
+            new Token.Integer(12, new SpanData("kinds.acorn", 29)),
+            tokens.get(9)
+        );
+    }
+
+    /// Spans point just past their token and resolve to a column and row
+    /// only when asked.
+    @Test
+    void spansResolveToColumnAndRow() {
+        var tokens = tokenize(SOURCE, "spans.acorn");
+
+        // `main`
+        assertEquals(
+            new SpanData.ColumnAndRow(7, 0),
+            tokens.span(1).location()
+        );
+        // `12`
+        assertEquals(
+            new SpanData.ColumnAndRow(10, 1),
+            tokens.span(9).location()
+        );
+        // `3`
+        assertEquals(
+            new SpanData.ColumnAndRow(16, 2),
+            tokens.span(13).location()
+        );
+        // the closing brace
+        assertEquals(
+            new SpanData.ColumnAndRow(1, 3),
+            tokens.span(14).location()
+        );
+    }
+
+    static MappedSource utf8(String source) {
+        return MappedSource.wrap(
+            ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8))
+        );
+    }
+
+    /// An ASCII file gives the same tokens and spans from a mapped file as
+    /// from a string.
+    @Test
+    void mappedFileTokenizesLikeAString(@TempDir Path directory)
+        throws Exception {
+        var file = directory.resolve("mapped.acorn");
+        Files.writeString(file, SOURCE);
+
+        var chars = tokenize(SOURCE, "mapped.acorn");
+        var bytes = tokenize(MappedSource.map(file), "mapped.acorn");
+
+        assertEquals(chars.size(), bytes.size());
+        for (int i = 0; i < chars.size(); i++) {
+            assertEquals(chars.get(i), bytes.get(i));
+        }
+    }
+
+    /// Mapped sources are lexed as UTF-8 bytes: identifiers are decoded
+    /// whole, and spans count bytes rather than chars. The non-ASCII letters
+    /// are escaped so the test does not depend on the source encoding.
+    @Test
+    void mappedSourceDecodesUtf8Identifiers() {
+        var word = "gr\u00f6\u00dfe";
+        var source = word + " = \"\u00fc\"\nz\u00e4hler";
+        var chars = tokenize(source, "chars.acorn");
+        var bytes = tokenize(utf8(source), "bytes.acorn");
+
+        assertEquals(kinds(chars), kinds(bytes));
+        assertEquals(
+            List.of(Kind.IDENTIFIER, Kind.EQUALS, Kind.STRING, Kind.IDENTIFIER),
+            kinds(bytes)
+        );
+        assertEquals(
+            new Token.Identifier(word, new SpanData("bytes.acorn", 7)),
+            bytes.get(0)
+        );
+        assertEquals(
+            new Token.Identifier(word, new SpanData("chars.acorn", 5)),
+            chars.get(0)
+        );
+        assertEquals(new Token.String("\u00fc", bytes.span(2)), bytes.get(2));
+        assertEquals("z\u00e4hler", ((Token.Identifier) bytes.get(3)).name());
+        assertEquals(
+            new SpanData.ColumnAndRow(7, 1),
+            bytes.span(3).location()
+        );
+    }
+}
@@ -0,0 +1,90 @@
+package acorn.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// Arrays are one box holding their length and then their elements. These
+/// programs print lengths through `printf`, since `main` can only return an
+/// `i32`.
+class ArrayTest {
+
+    @TempDir
+    Path root;
+
+    @BeforeAll
+    static void requireTools() {
+        assumeTrue(
+            Project.hasTools("clang", "llvm-link", "opt"),
+            "needs clang, llvm-link and opt"
+        );
+    }
+
+    Project.Run run(String source) throws Exception {
+        var run = new Project(this.root).source("main.acorn", source).run();
+        assertEquals(run.allocations(), run.frees(), run.output());
+        return run;
+    }
+
+    @Test
+    void lengthAndIndexing() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                a = [10, 20, 30, 40]
+                libc::printf(c"length %lld;", a.length)
+                return a[1] + a[3]
+            }
+            """
+        );
+        assertEquals(60, run.exitCode(), run.output());
+        assertTrue(run.output().contains("length 4;"), run.output());
+    }
+
+    /// Writing to a shared array copies all of it, length included, and
+    /// leaves the original as it was.
+    @Test
+    void copyOnWrite() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                a = [1 + 0, 2 + 0, 3 + 0]
+                b = a
+                b[0] = 7
+                libc::printf(c"lengths %lld %lld;", a.length, b.length)
+                return a[0] + b[0] + b[2]
+            }
+            """
+        );
+        assertEquals(11, run.exitCode(), run.output());
+        assertTrue(run.output().contains("lengths 3 3;"), run.output());
+    }
+
+    /// Each inner array is sized for its own elements.
+    @Test
+    void nestedArrays() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                m = [[1 + 0, 2 + 0], [3 + 0, 4 + 0, 5 + 0]]
+                first = m[0]
+                second = m[1]
+                libc::printf(
+                    c"lengths %lld %lld %lld;",
+                    m.length,
+                    first.length,
+                    second.length
+                )
+                return first[0] + second[2]
+            }
+            """
+        );
+        assertEquals(6, run.exitCode(), run.output());
+        assertTrue(run.output().contains("lengths 2 2 3;"), run.output());
+    }
+}
@@ -0,0 +1,55 @@
+package acorn.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EmissionTest {
+
+    static final String SOURCE = """
+        type Pair = {x i32, y i32}
+
+        fn swap(p Pair) -> Pair {
+            return {x i32 = p.y, y i32 = p.x}
+        }
+
+        fn main() -> i32 {
+            p = {x i32 = 1 + 2, y i32 = 3}
+            q = swap(p)
+            a = [q.x, q.y, 5]
+            a[0] = a[1] + a[2]
+            return a[0] + p.x
+        }
+        """;
+
+    @TempDir
+    Path root;
+
+    String emit(CLI.Emission emission) throws Exception {
+        var project = new Project(this.root).source("main.acorn", SOURCE);
+        project.cli.emission = emission;
+        return project.ir();
+    }
+
+    static String withoutComments(String ir) {
+        return ir
+            .lines()
+            .filter(x -> !x.isBlank() && !x.strip().startsWith(";"))
+            .collect(Collectors.joining("\n"));
+    }
+
+    /// Lean emission only leaves out the trace comments; every instruction
+    /// is the same.
+    @Test
+    void leanEmissionIsTraceEmissionWithoutComments() throws Exception {
+        var trace = this.emit(CLI.Emission.trace);
+        var lean = this.emit(CLI.Emission.lean);
+
+        assertNotEquals(trace, lean);
+        assertEquals(withoutComments(trace), withoutComments(lean));
+    }
+}
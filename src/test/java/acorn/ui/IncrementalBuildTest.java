@@ -0,0 +1,65 @@
+package acorn.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncrementalBuildTest {
+
+    static final String MAIN = """
+        fn main() -> i32 {
+            return one() + 2
+        }
+        """;
+
+    static final String ONE = """
+        fn one() -> i32 {
+            p = {x i32 = %d}
+            q = p
+            q.x = q.x + 0
+            return q.x + 0
+        }
+        """;
+
+    @TempDir
+    Path root;
+
+    @BeforeAll
+    static void requireTools() {
+        assumeTrue(
+            Project.hasTools("clang", "llvm-link", "opt"),
+            "needs clang, llvm-link and opt"
+        );
+    }
+
+    /// Rebuilding after an edit re-emits only the edited file and links its
+    /// new fragment with the cached one of the other file. Both define
+    /// private globals and glue, which must not clash.
+    @Test
+    void editedFileIsRelinkedWithCachedFragments() throws Exception {
+        var first = new Project(this.root)
+            .source("main.acorn", MAIN)
+            .source("one.acorn", ONE.formatted(1));
+        assertEquals(3, first.run().exitCode(), first.output.toString());
+        var fragments = first.cli.outFiles;
+
+        var second = new Project(this.root).source(
+            "one.acorn",
+            ONE.formatted(5)
+        );
+        var run = second.run();
+        assertEquals(7, run.exitCode(), run.output());
+        assertEquals(run.allocations(), run.frees(), run.output());
+
+        // the stdlib, then the sources in order
+        var rebuilt = second.cli.outFiles;
+        assertEquals(fragments.get(0), rebuilt.get(0));
+        assertEquals(fragments.get(1), rebuilt.get(1));
+        assertNotEquals(fragments.get(2), rebuilt.get(2));
+    }
+}
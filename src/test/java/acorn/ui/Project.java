@@ -0,0 +1,108 @@
+package acorn.ui;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import acorn.cache.BuildCache;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/// A throwaway Acorn project in a temporary directory, compiled by a `CLI`
+/// running in the test's own process.
+///
+/// Binaries are linked against a runtime built with
+/// `ACORN_COUNT_ALLOCATIONS`, which reports how many boxes the program
+/// allocated and freed when it exits.
+class Project {
+
+    static final Pattern COUNTS = Pattern.compile(
+        "acorn: (\\d+) allocations, (\\d+) frees"
+    );
+
+    /// The outcome of running a binary built by `run`.
+    record Run(int exitCode, String output, long allocations, long frees) {}
+
+    final Path root;
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final CLI cli = new CLI();
+
+    Project(Path root) {
+        this.root = root;
+        this.cli.root = root;
+        this.cli.noDaemon = true;
+        this.cli.profile = CLI.Profile.debug;
+        this.cli.out = new PrintStream(this.output, true, UTF_8);
+        this.cli.err = this.cli.out;
+        this.cli.cache = BuildCache.open(
+            root.resolve("build").resolve("cache")
+        );
+    }
+
+    /// Whether every one of `tools` can be found on the `PATH`.
+    static boolean hasTools(String... tools) {
+        var path = System.getenv().getOrDefault("PATH", "");
+        return Arrays.stream(tools).allMatch(tool ->
+            Arrays.stream(path.split(File.pathSeparator)).anyMatch(x ->
+                Files.isExecutable(Path.of(x, tool))
+            )
+        );
+    }
+
+    /// Writes `text` to `src/<name>`.
+    Project source(String name, String text) throws IOException {
+        var file = this.root.resolve("src").resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+        return this;
+    }
+
+    /// Parses every source file and emits its IR fragment.
+    List<Path> compile() throws IOException {
+        Files.createDirectories(this.root.resolve("build"));
+        this.cli.units = this.cli.getUnits();
+        this.cli.outFiles = this.cli.compileToOutFiles();
+        return this.cli.outFiles;
+    }
+
+    /// The IR of every fragment, the stdlib's included.
+    String ir() throws IOException {
+        var sb = new StringBuilder();
+        for (var outFile : this.compile()) {
+            sb.append(Files.readString(outFile)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /// Compiles and links the project with the counting runtime, runs the
+    /// binary and parses the counts it printed.
+    Run run() throws IOException, InterruptedException {
+        this.compile();
+        var binary = this.cli.binary();
+        var flags = new ArrayList<>(this.cli.profile.flags(false));
+        flags.add("-DACORN_COUNT_ALLOCATIONS");
+        this.cli.link(binary, flags);
+
+        var process = new ProcessBuilder(binary.toString())
+            .directory(this.root.toFile())
+            .redirectErrorStream(true)
+            .start();
+        var output = new String(process.getInputStream().readAllBytes(), UTF_8);
+        var exitCode = process.waitFor();
+        var counts = COUNTS.matcher(output);
+        assertTrue(counts.find(), output);
+        return new Run(
+            exitCode,
+            output,
+            Long.parseLong(counts.group(1)),
+            Long.parseLong(counts.group(2))
+        );
+    }
+}
@@ -0,0 +1,258 @@
+package acorn.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// Runs small programs against the counting runtime and checks that every
+/// box they allocate is freed exactly once.
+class RefCountTest {
+
+    @TempDir
+    Path root;
+
+    @BeforeAll
+    static void requireTools() {
+        assumeTrue(
+            Project.hasTools("clang", "llvm-link", "opt"),
+            "needs clang, llvm-link and opt"
+        );
+    }
+
+    Project.Run run(String source) throws Exception {
+        return new Project(this.root).source("main.acorn", source).run();
+    }
+
+    static void assertBalanced(int exitCode, Project.Run run) {
+        assertEquals(exitCode, run.exitCode(), run.output());
+        assertTrue(run.allocations() > 0, run.output());
+        assertEquals(run.allocations(), run.frees(), run.output());
+    }
+
+    /// Reassigning a variable releases the box it held, whether the box is
+    /// reused in place or is still shared and has to be replaced.
+    @Test
+    void reassignment() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                x = 1 + 2
+                x = x + 3
+                y = x
+                x = y + 4
+                return x + y
+            }
+            """
+        );
+        assertBalanced(16, run);
+    }
+
+    @Test
+    void structFieldsHoldingBoxes() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                p = {x i32 = 1 + 2, y i32 = 3 + 4}
+                q = p
+                p.x = p.y + 0
+                q.y = q.x + 0
+                return p.x + q.y
+            }
+            """
+        );
+        assertBalanced(10, run);
+    }
+
+    @Test
+    void arraysOfBoxes() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                a = [1 + 1, 2 + 2, 3 + 3]
+                b = a
+                b[0] = a[2] + 0
+                a[1] = b[1] + 4
+                return a[1] + b[0]
+            }
+            """
+        );
+        assertBalanced(14, run);
+    }
+
+    /// Returning from a function releases its locals and parameters but
+    /// keeps the returned box alive for the caller.
+    @Test
+    void returnReleasesLocals() throws Exception {
+        var run = this.run(
+            """
+            fn keep(a i32, b i32) -> i32 {
+                c = a + b
+                d = c
+                return c + d
+            }
+
+            fn main() -> i32 {
+                x = 3 + 1
+                y = x
+                return keep(x, y)
+            }
+            """
+        );
+        assertBalanced(16, run);
+    }
+
+    /// Writing through a shared parameter copies it, and both the copy and
+    /// the original are freed.
+    @Test
+    void copyOnWrite() throws Exception {
+        var run = this.run(
+            """
+            type Counter = {n i32}
+
+            fn bump(c Counter) -> Counter {
+                c.n = c.n + 1
+                return c
+            }
+
+            fn main() -> i32 {
+                a = {n i32 = 1 + 0}
+                b = bump(a)
+                return a.n + b.n
+            }
+            """
+        );
+        assertBalanced(3, run);
+    }
+
+    /// A box that is only read in place lives on the stack, so the only heap
+    /// allocation left is the returned sum. Returning the variable itself
+    /// makes it escape and puts its box back on the heap.
+    @Test
+    void nonEscapingBoxStaysOffTheHeap() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                x = 1 + 2
+                x = x + 3
+                return x + 0
+            }
+            """
+        );
+        assertBalanced(6, run);
+        assertEquals(1, run.allocations(), run.output());
+    }
+
+    @Test
+    void returnedBoxStaysOnTheHeap() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                x = 1 + 2
+                x = x + 3
+                return x
+            }
+            """
+        );
+        assertBalanced(6, run);
+        assertEquals(1, run.allocations(), run.output());
+    }
+
+    @Test
+    void passedBoxStaysOnTheHeap() throws Exception {
+        var run = this.run(
+            """
+            fn id(v i32) -> i32 {
+                return v
+            }
+
+            fn main() -> i32 {
+                x = 1 + 2
+                return id(x) + x
+            }
+            """
+        );
+        assertBalanced(6, run);
+        assertEquals(2, run.allocations(), run.output());
+    }
+
+    @Test
+    void boxStoredInAFieldStaysOnTheHeap() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                x = 1 + 2
+                s = {v i32 = x}
+                return s.v + x
+            }
+            """
+        );
+        assertBalanced(6, run);
+        assertEquals(2, run.allocations(), run.output());
+    }
+
+    /// Literals are immortal globals. Sharing one and then writing through
+    /// the copy-on-write path copies it without touching its counts, so only
+    /// the copies and the result are ever allocated or freed.
+    @Test
+    void sharedLiteralsAreCopiedOnWrite() throws Exception {
+        var run = this.run(
+            """
+            fn bump() -> i32 {
+                a = {n i32 = 1}
+                b = a
+                b.n = b.n + 1
+                c = [1, 2]
+                d = c
+                d[0] = d[1] + 5
+                return a.n + b.n + c[0] + d[0]
+            }
+
+            fn main() -> i32 {
+                return bump() + bump()
+            }
+            """
+        );
+        assertBalanced(22, run);
+        assertEquals(7, run.allocations(), run.output());
+    }
+
+    /// A struct literal stored over an unshared box of its type is built in
+    /// that box, after its fields have read the old contents.
+    @Test
+    void structLiteralReusesTheOldBox() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                p = {x i32 = 1 + 0, y i32 = 2 + 0}
+                p = {x i32 = p.y + 0, y i32 = p.x + 0}
+                q = p
+                return q.x + q.x + q.y
+            }
+            """
+        );
+        assertBalanced(5, run);
+        assertEquals(6, run.allocations(), run.output());
+    }
+
+    /// An array's length is a plain `i64`; unboxing it or adding to it
+    /// uses it as it is.
+    @Test
+    void plainValuesInArithmetic() throws Exception {
+        var run = this.run(
+            """
+            fn main() -> i32 {
+                a = [1 + 0, 2 + 0, 3 + 0]
+                n = unbox(a.length)
+                m = a.length + a.length
+                return a[2] + 0
+            }
+            """
+        );
+        assertBalanced(3, run);
+    }
+}
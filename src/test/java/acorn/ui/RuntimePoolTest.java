@@ -0,0 +1,58 @@
+package acorn.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// Builds the C runtime with `runtime/pool_test.c`, which exercises the
+/// size-class pools directly and exits with the number of the first check
+/// that failed.
+class RuntimePoolTest {
+
+    @TempDir
+    Path root;
+
+    Path resource(String name) throws Exception {
+        var file = this.root.resolve(Path.of(name).getFileName());
+        try (
+            var in = Objects.requireNonNull(
+                RuntimePoolTest.class.getResourceAsStream("/" + name)
+            )
+        ) {
+            Files.copy(in, file);
+        }
+        return file;
+    }
+
+    @Test
+    void poolsRecycleFreedBlocks() throws Exception {
+        assumeTrue(Project.hasTools("clang"), "needs clang");
+        var binary = this.root.resolve("pool_test");
+        var command = List.of(
+            "clang",
+            "-O2",
+            this.resource("runtime/pool_test.c").toString(),
+            this.resource("runtime/acorn_rt.c").toString(),
+            "-o",
+            binary.toString()
+        );
+        var build = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .start();
+        var output = new String(
+            build.getInputStream().readAllBytes(),
+            StandardCharsets.UTF_8
+        );
+        assertEquals(0, build.waitFor(), output);
+
+        var run = new ProcessBuilder(binary.toString()).start();
+        assertEquals(0, run.waitFor(), "first failed check");
+    }
+}
@@ -0,0 +1,128 @@
+package acorn.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// Every stack slot of a function is made before any other code, where
+/// mem2reg and SROA can promote it.
+class StackSlotsTest {
+
+    static final String SOURCE = """
+        fn add(a i32, b i32) -> i32 {
+            return a + b
+        }
+
+        fn main() -> i32 {
+            x = 1 + 2
+            y = add(x, 4)
+            x = x + 3
+            s = {v i32 = x + 0, w i32 = 4}
+            s.v = s.v + x
+            t = unbox {v i32 = 5, w i32 = y}
+            return s.v + s.w + t.v
+        }
+        """;
+
+    @TempDir
+    Path root;
+
+    Project project() throws Exception {
+        var project = new Project(this.root).source("main.acorn", SOURCE);
+        project.cli.emission = CLI.Emission.lean;
+        return project;
+    }
+
+    /// The instructions of each function defined in `ir`, by function.
+    static List<List<String>> bodies(String ir) {
+        var bodies = new ArrayList<List<String>>();
+        List<String> body = null;
+        for (var line : ir.lines().toList()) {
+            var code = line.strip();
+            if (code.startsWith("define ")) {
+                body = new ArrayList<>();
+                bodies.add(body);
+            } else if (code.equals("}")) {
+                body = null;
+            } else if (
+                body != null &&
+                !code.isEmpty() &&
+                !code.startsWith(";") &&
+                !code.endsWith(":")
+            ) {
+                body.add(code);
+            }
+        }
+        return bodies;
+    }
+
+    static boolean isAlloca(String instruction) {
+        return instruction.contains(" = alloca ");
+    }
+
+    @Test
+    void allocasComeFirst() throws Exception {
+        var bodies = bodies(this.project().ir());
+        assertFalse(bodies.isEmpty());
+        var hoisted = 0;
+        for (var body : bodies) {
+            var leading = 0;
+            while (leading < body.size() && isAlloca(body.get(leading))) {
+                leading++;
+            }
+            assertEquals(allocas(body), leading, String.join("\n", body));
+            hoisted += leading;
+        }
+        assertTrue(hoisted > 0);
+    }
+
+    /// The instructions of the function defined in `ir` whose name
+    /// contains `name`.
+    static List<String> body(String ir, String name) {
+        var start = ir
+            .lines()
+            .filter(x -> x.startsWith("define ") && x.contains(name))
+            .findFirst()
+            .orElseThrow();
+        return bodies(ir.substring(ir.indexOf(start))).getFirst();
+    }
+
+    static long allocas(List<String> body) {
+        return body.stream().filter(StackSlotsTest::isAlloca).count();
+    }
+
+    /// Because the slots come first, SROA and mem2reg promote them.
+    @Test
+    void slotsArePromoted() throws Exception {
+        assumeTrue(Project.hasTools("opt"), "needs opt");
+        var project = this.project();
+        var fragment = project.compile().getLast();
+        var optimized = this.root.resolve("build").resolve("promoted.ll");
+        project.cli.execTool(
+            List.of(
+                "opt",
+                "-S",
+                "-passes=sroa,mem2reg",
+                fragment.toString(),
+                "-o",
+                optimized.toString()
+            )
+        );
+
+        var before = body(Files.readString(fragment), "main");
+        var after = body(Files.readString(optimized), "main");
+        assertTrue(allocas(before) > 0);
+        assertTrue(
+            allocas(after) < allocas(before),
+            String.join("\n", after)
+        );
+    }
+}
@@ -0,0 +1,60 @@
+package acorn.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// Struct literals are built field by field in the memory they end up in,
+/// including unboxed structs nested in a boxed one and boxes nested in an
+/// array.
+class StructLiteralTest {
+
+    static final String SOURCE = """
+        type Inner = unbox {a i32, b i32}
+        type Outer = {inner Inner, c i32}
+
+        fn make(n i32) -> Outer {
+            return {
+                inner Inner = unbox {a i32 = n + 1, b i32 = n + 2},
+                c i32 = n + 3
+            }
+        }
+
+        fn main() -> i32 {
+            o = make(10)
+            boxes = [
+                make(0),
+                {inner Inner = unbox {a i32 = 4, b i32 = 5}, c i32 = 6}
+            ]
+            first = boxes[0]
+            second = boxes[1]
+            return o.inner.b + o.c + first.inner.a + second.inner.b
+        }
+        """;
+
+    @TempDir
+    Path root;
+
+    /// No aggregate is ever assembled in registers.
+    @Test
+    void literalsAreStoredFieldByField() throws Exception {
+        var project = new Project(this.root).source("main.acorn", SOURCE);
+        project.cli.emission = CLI.Emission.lean;
+        assertFalse(project.ir().contains("insertvalue"));
+    }
+
+    @Test
+    void nestedLiteralsHoldTheirValues() throws Exception {
+        assumeTrue(
+            Project.hasTools("clang", "llvm-link", "opt"),
+            "needs clang, llvm-link and opt"
+        );
+        var run = new Project(this.root).source("main.acorn", SOURCE).run();
+        assertEquals(12 + 13 + 1 + 5, run.exitCode(), run.output());
+        assertEquals(run.allocations(), run.frees(), run.output());
+    }
+}
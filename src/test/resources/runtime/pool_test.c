@@ -0,0 +1,64 @@
+// Checks the size-class pools of acorn_rt.c. Built together with the runtime
+// by RuntimePoolTest; exits with the number of the first failed check.
+
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+void *acorn_alloc(int64_t size);
+void acorn_free(void *ptr, int64_t size);
+
+#define CHECK(number, condition) \
+    if (!(condition)) { \
+        return number; \
+    }
+
+int main(void) {
+    // a freed block is the next one handed out for its size class
+    void *first = acorn_alloc(24);
+    acorn_free(first, 24);
+    CHECK(1, acorn_alloc(24) == first);
+    acorn_free(first, 24);
+    CHECK(2, acorn_alloc(32) == first);
+
+    // other classes have free lists of their own
+    void *small = acorn_alloc(16);
+    CHECK(3, small != first);
+    acorn_free(small, 16);
+    CHECK(4, acorn_alloc(16) == small);
+
+    // blocks freed last are reused first
+    void *a = acorn_alloc(48);
+    void *b = acorn_alloc(48);
+    CHECK(5, a != b);
+    acorn_free(a, 48);
+    acorn_free(b, 48);
+    CHECK(6, acorn_alloc(48) == b);
+    CHECK(7, acorn_alloc(48) == a);
+
+    // more blocks than one refill provides are all distinct and writable
+    void *blocks[200];
+    for (int i = 0; i < 200; i++) {
+        blocks[i] = acorn_alloc(64);
+        memset(blocks[i], i, 64);
+    }
+    for (int i = 0; i < 200; i++) {
+        CHECK(8, ((unsigned char *) blocks[i])[63] == (unsigned char) i);
+    }
+    for (int i = 0; i < 200; i++) {
+        acorn_free(blocks[i], 64);
+    }
+    for (int i = 0; i < 200; i++) {
+        CHECK(9, acorn_alloc(64) == blocks[199 - i]);
+    }
+
+    // every block is 16-byte aligned, as box headers need
+    CHECK(10, ((uintptr_t) acorn_alloc(80) & 15) == 0);
+
+    // requests past the largest class go to malloc and back
+    void *large = acorn_alloc(4096);
+    CHECK(11, large != NULL);
+    memset(large, 0, 4096);
+    acorn_free(large, 4096);
+    return 0;
+}